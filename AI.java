@@ -1,20 +1,34 @@
 package amazons;
 
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-import static amazons.Piece.*;
-import static java.lang.Math.max;
-
-/** A Player that automatically generates moves.
+/** A Player that automatically generates moves.  The search itself is
+ *  done by one or more Searchers: with more than one thread, the extra
+ *  (helper) Searchers search the same position at the same time, sharing
+ *  a transposition table with the main one, and so fill it with results
+ *  that the main Searcher can use ("Lazy SMP").  The move played is
+ *  always the main Searcher's.
+ *
+ *  When pondering, an AI that has just chosen a move guesses the reply
+ *  (the best move the transposition table records for the position
+ *  after its move) and goes on searching the position after that reply
+ *  in the background while the opponent thinks.  If the guess is right,
+ *  that search continues for the usual time from the moment the reply
+ *  is made and supplies the next move; if not, it is stopped.
  *  @author esun
  */
 class AI extends Player {
 
-    /** A position magnitude indicating a win (for white if positive, black
-     *  if negative). */
-    private static final int WINNING_VALUE = Integer.MAX_VALUE - 1;
-    /** A magnitude greater than a normal value. */
-    private static final int INFTY = Integer.MAX_VALUE;
+    /** The default size of the transposition table, in megabytes. */
+    static final int DEFAULT_HASH_SIZE = 16;
 
     /** A new AI with no piece or controller (intended to produce
      *  a template). */
@@ -25,114 +39,440 @@ class AI extends Player {
     /** A new AI playing PIECE under control of CONTROLLER. */
     AI(Piece piece, Controller controller) {
         super(piece, controller);
+        _hashSize = DEFAULT_HASH_SIZE;
+        _threads = 1;
+        _features = Searcher.DEFAULT_FEATURES;
+        _collectStats = true;
+    }
+
+    /** A new AI playing PIECE under control of CONTROLLER, with the same
+     *  settings as TEMPLATE. */
+    private AI(Piece piece, Controller controller, AI template) {
+        this(piece, controller);
+        _hashSize = template._hashSize;
+        _threads = template._threads;
+        _splitPly = template._splitPly;
+        _features = template._features;
+        _collectStats = template._collectStats;
+        _book = template._book;
+        _ponder = template._ponder;
     }
 
     @Override
     Player create(Piece piece, Controller controller) {
-        return new AI(piece, controller);
+        return new AI(piece, controller, this);
+    }
+
+    /** Set the size of my transposition table to MEGABYTES megabytes,
+     *  returning this AI. */
+    AI setHashSize(int megabytes) {
+        _hashSize = megabytes;
+        _table = null;
+        _searchers = null;
+        return this;
+    }
+
+    /** Search with THREADS threads, returning this AI. */
+    AI setThreads(int threads) {
+        _threads = threads;
+        _searchers = null;
+        return this;
+    }
+
+    /** Split each move into an amazon move and a spear throw when
+     *  searching iff SPLITPLY (see Searcher), returning this AI.  Since
+     *  the two kinds of search count depth differently, this discards
+     *  my transposition table. */
+    AI setSplitPly(boolean splitPly) {
+        _splitPly = splitPly;
+        _table = null;
+        _searchers = null;
+        return this;
+    }
+
+    /** Search using FEATURES, a combination of the features defined in
+     *  Searcher, returning this AI. */
+    AI setFeatures(int features) {
+        _features = features;
+        _searchers = null;
+        return this;
+    }
+
+    /** Collect statistics on my searches (see stats) iff COLLECT, as I do
+     *  unless told otherwise, returning this AI.  Turning them off
+     *  discards those on my last search. */
+    AI setStats(boolean collect) {
+        _collectStats = collect;
+        _stats = null;
+        _searchers = null;
+        return this;
+    }
+
+    /** Search on the opponent's time iff PONDER, returning this AI. */
+    AI setPonder(boolean ponder) {
+        _ponder = ponder;
+        return this;
+    }
+
+    /** Play the moves in BOOK (if not null) when it has one for the
+     *  current position, returning this AI. */
+    AI setBook(OpeningBook book) {
+        _book = book;
+        return this;
+    }
+
+    /** Return my transposition table, creating it if needed.  It is kept
+     *  from one move to the next. */
+    TranspositionTable table() {
+        if (_table == null) {
+            _table = new TranspositionTable(_hashSize);
+        }
+        return _table;
     }
 
     @Override
     String myMove() {
-        Move move = findMove();
+        int packed = finishPondering();
+        if (packed == 0) {
+            packed = findMove();
+        }
+        Move move = Move.mv(packed);
         _controller.reportMove(move);
+        if (_ponder) {
+            startPondering(packed);
+        }
         return move.toString();
     }
 
-    /** Return a move for me from the current position, assuming there
-     *  is a move. */
-    private Move findMove() {
-        Board b = new Board(board());
-        if (_myPiece == WHITE) {
-            findMove(b, maxDepth(b), true, 1, -INFTY, INFTY);
-        } else {
-            findMove(b, maxDepth(b), true, -1, -INFTY, INFTY);
-        }
-        return _lastFoundMove;
-    }
-
-    /** The move found by the last call to one of the ...FindMove methods
-     *  below. */
-    private Move _lastFoundMove;
-
-    /** Find a move from position BOARD and return its value, recording
-     *  the move found in _lastFoundMove iff SAVEMOVE. The move
-     *  should have maximal value or have value > BETA if SENSE==1,
-     *  and minimal value or value < ALPHA if SENSE==-1. Searches up to
-     *  DEPTH levels.  Searching at level 0 simply returns a static estimate
-     *  of the board value and does not set _lastMoveFound. */
-    private int findMove(Board board, int depth, boolean saveMove, int sense,
-                         int alpha, int beta) {
-        if (depth == 0 || board.winner() != null) {
-            return staticScore(board);
-        }
-
-        int bestSoFar;
-
-        if (sense == 1) {
-            bestSoFar = -INFTY;
-            Iterator<Move> it = board.legalMoves(WHITE);
-            while (it.hasNext()) {
-                Move mv = it.next();
-                board.makeMove(mv);
-                int score = findMove(new Board(board), depth - 1,
-                        false, -sense, alpha, beta);
-                if (score > bestSoFar) {
-                    if (saveMove) {
-                        _lastFoundMove = mv;
-                    }
-                    bestSoFar = score;
-                    alpha = max(alpha, score);
-                    if (beta <= alpha) {
-                        break;
-                    }
-                }
-                board.undo();
+    @Override
+    void moveMade(Move move, Piece side) {
+        if (_ponderSearch != null && side != _myPiece) {
+            if (move.packed() == _ponderMove && _ponderHitTime == 0) {
+                _ponderHitTime = System.nanoTime();
+                _ponderHits += 1;
+            } else {
+                stopPondering();
+                _ponderMisses += 1;
+            }
+        }
+    }
+
+    @Override
+    void stop() {
+        stopPondering();
+    }
+
+    /** Return the reply I expect to my last move (packed), if I am
+     *  pondering on it, and otherwise 0. */
+    int ponderMove() {
+        return _ponderSearch == null ? 0 : _ponderMove;
+    }
+
+    /** Return the number of replies I guessed correctly while
+     *  pondering. */
+    int ponderHits() {
+        return _ponderHits;
+    }
+
+    /** Return the number of replies I guessed wrongly while pondering. */
+    int ponderMisses() {
+        return _ponderMisses;
+    }
+
+    /** Having just chosen MOVE (packed), guess the opponent's reply and
+     *  start searching the position after it in the background, if I
+     *  can make a guess. */
+    private void startPondering(int move) {
+        Board position = new Board();
+        position.copy(board());
+        position.makeMove(move);
+        position.swap();
+        if (position.winner() != null) {
+            return;
+        }
+        long entry = table().probe(position.hash());
+        int reply = entry == 0 ? 0 : TranspositionTable.move(entry);
+        if (reply == 0
+            || Move.spearIndex(reply) == Move.NO_SPEAR
+            || !position.isLegal(Move.mv(reply))) {
+            return;
+        }
+        position.makeMove(reply);
+        position.swap();
+        if (position.winner() != null) {
+            return;
+        }
+        long moveTime = _controller.moveTime();
+        long ponderTime = moveTime >= MAX_PONDER_TIME / PONDER_MOVES
+            ? MAX_PONDER_TIME : PONDER_MOVES * moveTime;
+        _ponderMove = reply;
+        _ponderKey = position.hash();
+        _ponderHitTime = 0;
+        _ponderSearch = PONDER_THREADS.submit(
+            () -> search(position, _myPiece, Searcher.MAX_DEPTH,
+                         ponderTime, 0));
+    }
+
+    /** If I have been pondering on the current position since my
+     *  opponent's reply, let that search run out its time and return its
+     *  move (packed).  Otherwise, stop any pondering and return 0. */
+    private int finishPondering() {
+        if (_ponderSearch == null) {
+            return 0;
+        }
+        if (_ponderHitTime == 0 || board().hash() != _ponderKey) {
+            stopPondering();
+            return 0;
+        }
+        long deadline = _ponderHitTime
+            + TimeUnit.MILLISECONDS.toNanos(_controller.moveTime());
+        try {
+            long wait = deadline - System.nanoTime();
+            if (wait > 0) {
+                _ponderSearch.get(wait, TimeUnit.NANOSECONDS);
+            }
+        } catch (TimeoutException excp) {
+            /* Out of time: stop the search below. */
+        } catch (InterruptedException | ExecutionException excp) {
+            throw new IllegalStateException("pondering failed: "
+                                            + excp.getMessage());
+        }
+        return stopPondering();
+    }
+
+    /** Stop my pondering search, if any, and return its move (packed), or
+     *  0 if there is none. */
+    private int stopPondering() {
+        if (_ponderSearch == null) {
+            return 0;
+        }
+        Future<Integer> search = _ponderSearch;
+        _ponderSearch = null;
+        while (true) {
+            _stop.set(true);
+            try {
+                return search.get(STOP_POLL_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException excp) {
+                /* The search may have cleared the flag as it started; set
+                 * it again. */
+            } catch (InterruptedException | ExecutionException excp) {
+                throw new IllegalStateException("pondering failed: "
+                                                + excp.getMessage());
+            }
+        }
+    }
+
+    /** Return a move for me from the current position as a packed move
+     *  (see Move.pack), assuming there is a move.  Takes the move from my
+     *  opening book, if it has one, or from the endgame solver, once the
+     *  position is settled, and otherwise searches. */
+    private int findMove() {
+        if (_book != null) {
+            int move = _book.lookup(board().hash());
+            if (move != 0 && board().isLegal(Move.mv(move))) {
+                return move;
+            }
+        }
+        if (_endgame.analyze(board())) {
+            int move = _endgame.bestMove(_myPiece);
+            if (move != 0) {
+                return move;
+            }
+        }
+        return search(board(), _myPiece, Searcher.MAX_DEPTH,
+                      _controller.moveTime(), _controller.nodeLimit());
+    }
+
+    /** Return the best move (packed) for SIDE on BOARD found by searching
+     *  to at most DEPTH for at most MILLIS milliseconds, examining at most
+     *  NODELIMIT nodes (if > 0) in the main Searcher.  The first iteration
+     *  always completes, regardless of the budget.  Helper Searchers
+     *  start at depth 1 or 2 (alternately) and stop when the main one
+     *  finishes. */
+    int search(Board board, Piece side, int depth, long millis,
+               long nodeLimit) {
+        Searcher[] searchers = searchers();
+        SearchStats.SearchEvent event = null;
+        if (SearchStats.SEARCH_EVENTS.isEnabled()) {
+            event = new SearchStats.SearchEvent();
+            event.begin();
+        }
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(millis);
+        List<Future<?>> helpers = new ArrayList<>();
+
+        table().newSearch();
+        _stop.set(false);
+        for (Searcher searcher : searchers) {
+            searcher.start(board, side, deadline, nodeLimit);
+        }
+        for (int k = 1; k < searchers.length; k += 1) {
+            Searcher helper = searchers[k];
+            int first = 1 + k % 2;
+            helpers.add(HELPER_THREADS.submit(
+                () -> helper.deepen(first, depth, false)));
+        }
+        int best = searchers[0].deepen(1, depth, true);
+        _stop.set(true);
+        for (Future<?> helper : helpers) {
+            try {
+                helper.get();
+            } catch (InterruptedException | ExecutionException excp) {
+                throw new IllegalStateException("search helper failed: "
+                                                + excp.getMessage());
             }
-        } else {
-            bestSoFar = INFTY;
-            Iterator<Move> it = board.legalMoves(BLACK);
-            while (it.hasNext()) {
-                Move mv = it.next();
-                board.makeMove(mv);
-                int score = findMove(new Board(board), depth - 1,
-                        false, -sense, alpha, beta);
-                if (score < bestSoFar) {
-                    if (saveMove) {
-                        _lastFoundMove = mv;
-                    }
-                    bestSoFar = score;
-                    beta = Math.min(beta, score);
-                    if (beta <= alpha) {
-                        break;
-                    }
-                }
-                board.undo();
+        }
+        if (_collectStats || event != null) {
+            SearchStats stats =
+                new SearchStats(searchers, best, System.nanoTime() - start);
+            if (_collectStats) {
+                _stats = stats;
+            }
+            if (event != null && event.shouldCommit()) {
+                event.set(stats);
+                event.commit();
             }
         }
+        return best;
+    }
 
-        return bestSoFar;
+    /** Return statistics on my last search, or null if I have not
+     *  searched since I last started collecting them. */
+    SearchStats stats() {
+        return _stats;
     }
 
-    /** Return a heuristically determined maximum search depth
-     *  based on characteristics of BOARD. */
-    private int maxDepth(Board board) {
-        int N = board.numMoves();
-        return 2;
+    /** Return the number of nodes visited by all my Searchers in the
+     *  last search. */
+    long nodes() {
+        long total = 0;
+        for (Searcher searcher : searchers()) {
+            total += searcher.nodes();
+        }
+        return total;
     }
 
+    /** Return the fraction of the beta cutoffs in the last search that
+     *  were caused by the first move tried at their node (1 if there were
+     *  no cutoffs).  The closer to 1, the better the move ordering. */
+    double firstMoveCutoffRate() {
+        long cutoffs, first;
+        cutoffs = first = 0;
+        for (Searcher searcher : searchers()) {
+            cutoffs += searcher.cutoffs();
+            first += searcher.firstMoveCutoffs();
+        }
+        return cutoffs == 0 ? 1.0 : (double) first / cutoffs;
+    }
 
-    /** Return a heuristic value for BOARD. */
-    private int staticScore(Board board) {
-        Piece winner = board.winner();
-        if (winner == BLACK) {
-            return -WINNING_VALUE;
-        } else if (winner == WHITE) {
-            return WINNING_VALUE;
+    /** Return a report on how the speed of searching BOARD to depth DEPTH
+     *  scales with the number of threads: the nodes searched per second
+     *  and the time taken to reach DEPTH with 1, 2, 4, ... threads, up
+     *  to my thread count, with the first-move cutoff rate.  Each run
+     *  starts with an empty table. */
+    String scalingReport(Board board, int depth) {
+        StringBuilder report = new StringBuilder();
+        int threads = _threads;
+        report.append(String.format("%8s %12s %12s %10s %8s%n",
+                                    "threads", "nodes", "nodes/s", "ms",
+                                    "cut1"));
+        for (int n = 1; ; n = Math.min(2 * n, threads)) {
+            setThreads(n);
+            table().clear();
+            long start = System.nanoTime();
+            search(board, board.turn(), depth, Long.MAX_VALUE, 0);
+            long nanos = Math.max(1, System.nanoTime() - start);
+            report.append(String.format("%8d %12d %12d %10d %8.3f%n",
+                                        n, nodes(),
+                                        nodes() * 1_000_000_000L / nanos,
+                                        nanos / 1_000_000,
+                                        firstMoveCutoffRate()));
+            if (n == threads) {
+                break;
+            }
         }
-        int score = board.score();
-        return score;
+        setThreads(threads);
+        return report.toString();
     }
 
+    /** Return my Searchers (the first being the main one), creating them
+     *  if needed. */
+    private Searcher[] searchers() {
+        if (_searchers == null) {
+            _searchers = new Searcher[_threads];
+            for (int k = 0; k < _threads; k += 1) {
+                _searchers[k] =
+                    new Searcher(table(), _stop, k, _threads, _splitPly,
+                                 _features, _collectStats);
+            }
+        }
+        return _searchers;
+    }
+
+    /** An AI ponders for at most PONDER_MOVES times its time per move, and
+     *  never more than MAX_PONDER_TIME milliseconds. */
+    private static final long PONDER_MOVES = 10;
+    /** See PONDER_MOVES. */
+    private static final long MAX_PONDER_TIME = TimeUnit.MINUTES.toMillis(10);
+    /** How often, in milliseconds, to renew a request to stop
+     *  pondering until it takes effect. */
+    private static final long STOP_POLL_MILLIS = 5;
+
+    /** Threads on which AIs ponder.  They are daemons, so that they
+     *  never keep the program from exiting. */
+    private static final ExecutorService PONDER_THREADS =
+        Executors.newCachedThreadPool(task -> {
+            Thread thread = new Thread(task, "ponder");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+    /** Threads on which all AIs run their helper Searchers.  They are
+     *  daemons, so that they never keep the program from exiting. */
+    private static final ExecutorService HELPER_THREADS =
+        Executors.newCachedThreadPool(task -> {
+            Thread thread = new Thread(task, "search helper");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+    /** The size of my transposition table, in megabytes. */
+    private int _hashSize;
+    /** The number of threads I search with. */
+    private int _threads;
+    /** True iff my searches split moves into two plies. */
+    private boolean _splitPly;
+    /** The search features I use (see Searcher). */
+    private int _features;
+    /** True iff I collect statistics on my searches. */
+    private boolean _collectStats;
+    /** True iff I ponder. */
+    private boolean _ponder;
+    /** The search I am running on the opponent's time, or null if
+     *  none. */
+    private Future<Integer> _ponderSearch;
+    /** The reply I expect (packed), and the hash of the position after
+     *  it, which _ponderSearch is searching. */
+    private int _ponderMove;
+    /** See _ponderMove. */
+    private long _ponderKey;
+    /** The time (by System.nanoTime) at which my opponent made the reply I
+     *  expected, or 0 if it has not yet done so. */
+    private long _ponderHitTime;
+    /** Counts of correct and incorrect guesses of replies. */
+    private int _ponderHits, _ponderMisses;
 
+    /** My opening book, or null if none. */
+    private OpeningBook _book;
+    /** My endgame solver. */
+    private final Endgame _endgame = new Endgame();
+    /** My transposition table, or null if not yet created. */
+    private TranspositionTable _table;
+    /** My Searchers, or null if not yet created. */
+    private Searcher[] _searchers;
+    /** Statistics on my last search, which may have been made while
+     *  pondering. */
+    private volatile SearchStats _stats;
+    /** Set to tell my helper Searchers to stop. */
+    private final AtomicBoolean _stop = new AtomicBoolean();
 }
@@ -0,0 +1,353 @@
+package amazons;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.ToIntFunction;
+
+import static amazons.Piece.*;
+
+/** Micro-benchmarks of the operations that dominate play: move
+ *  generation, legality checks, evaluation, copying, move parsing, and
+ *  fixed-depth search.  Each benchmark runs over the same fixed set of
+ *  positions (the initial position and the SMILE, BLACK_LOSE, WHITELOSS,
+ *  and SP3 boards of UnitTest), so that results from different versions
+ *  of the code are comparable.
+ *
+ *  Each benchmark is warmed up for WARMUP_ROUNDS rounds and then timed for
+ *  MEASURED_ROUNDS rounds of about ROUND_MILLIS milliseconds each.  For
+ *  each, the report gives the throughput (passes over the positions per
+ *  second, with its spread over the measured rounds), the bytes allocated
+ *  per pass by the benchmark thread, and the number and total time of
+ *  garbage collections during the measured rounds.
+ *
+ *  Usage: java amazons.Benchmarks [NAME ...] runs the benchmarks whose
+ *  names contain one of the NAMEs, or all of them if there are none.
+ *  java amazons.Benchmarks --nodes=DEPTH instead reports the nodes
+ *  visited by searches of each position to DEPTH with each of several
+ *  combinations of search features (see Searcher), so that the
+ *  features' savings can be compared.
+ *  @author edwardsun
+ */
+public class Benchmarks {
+
+    /** Run the benchmarks selected by ARGS (see the class comment). */
+    public static void main(String... args) {
+        Benchmarks benchmarks = new Benchmarks();
+        if (args.length == 1 && args[0].startsWith("--nodes=")) {
+            int depth;
+            try {
+                depth = Integer.parseInt(args[0].substring(8));
+            } catch (NumberFormatException excp) {
+                System.err.println("Usage: java amazons.Benchmarks"
+                                   + " --nodes=DEPTH");
+                System.exit(1);
+                return;
+            }
+            benchmarks.nodeCounts(depth);
+            return;
+        }
+        System.out.printf("%-16s %14s %10s %12s %6s %8s%n",
+                          "benchmark", "ops/s", "+-%", "bytes/op",
+                          "gcs", "gc ms");
+        for (Benchmark benchmark : benchmarks._benchmarks) {
+            if (selected(benchmark._name, args)) {
+                benchmarks.run(benchmark);
+            }
+        }
+    }
+
+    /** Return true iff NAME contains one of NAMES, or NAMES is empty. */
+    private static boolean selected(String name, String[] names) {
+        if (names.length == 0) {
+            return true;
+        }
+        for (String n : names) {
+            if (name.contains(n)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Benchmarks over the standard positions. */
+    Benchmarks() {
+        String[] patterns = { UnitTest.INIT_BOARD_STATE, UnitTest.SMILE,
+                              UnitTest.BLACK_LOSE, UnitTest.WHITELOSS,
+                              UnitTest.SP3 };
+        _positions = new Board[patterns.length];
+        for (int i = 0; i < patterns.length; i += 1) {
+            _positions[i] = readBoard(patterns[i]);
+        }
+        for (Board b : _positions) {
+            for (Iterator<Move> moves = b.legalMoves(); moves.hasNext(); ) {
+                Move move = moves.next();
+                _moveStrings.add(move.toString());
+                _candidates.add(move);
+                _candidates.add(Move.mv(move.from(), move.to(),
+                                        move.to()));
+            }
+        }
+
+        add("legalMoves", b -> {
+            int n = 0;
+            for (Iterator<Move> moves = b.legalMoves(); moves.hasNext(); ) {
+                moves.next();
+                n += 1;
+            }
+            return n;
+        });
+        add("reachableFrom", b -> {
+            int n = 0;
+            for (int k = 0; k < Board.SIZE * Board.SIZE; k += 1) {
+                Square from = Square.sq(k);
+                if (b.get(from) == b.turn()) {
+                    Iterator<Square> to = b.reachableFrom(from, null);
+                    while (to.hasNext()) {
+                        to.next();
+                        n += 1;
+                    }
+                }
+            }
+            return n;
+        });
+        add("isLegal", b -> {
+            int n = 0;
+            for (Move move : _candidates) {
+                if (b.isLegal(move)) {
+                    n += 1;
+                }
+            }
+            return n;
+        });
+        add("score", Board::score);
+        add("freedom", b -> b.freedom(WHITE) + b.freedom(BLACK));
+        add("copy", b -> new Board(b).numMoves());
+        add("mvParse", b -> {
+            int n = 0;
+            for (String s : _moveStrings) {
+                n += Move.mv(s).packed();
+            }
+            return n;
+        });
+        add("search", b -> {
+            if (b.winner() != null) {
+                return 0;
+            }
+            AI ai = new AI().setHashSize(SEARCH_HASH_SIZE);
+            return ai.search(b, b.turn(), SEARCH_DEPTH, Long.MAX_VALUE / 2,
+                             0);
+        });
+    }
+
+    /** Add a benchmark named NAME that applies OP to each position. */
+    private void add(String name, ToIntFunction<Board> op) {
+        _benchmarks.add(new Benchmark(name, op));
+    }
+
+    /** Print the number of nodes visited by a search of each position to
+     *  DEPTH with each combination of features in NODE_FEATURES, and
+     *  their totals, each search starting with an empty table.  A value
+     *  that differs from that found with the first combination is marked
+     *  with '*'. */
+    void nodeCounts(int depth) {
+        int[] values = new int[_positions.length];
+        long total0 = 0;
+        System.out.printf("%-38s", "features");
+        for (int p = 0; p < _positions.length; p += 1) {
+            if (_positions[p].winner() == null) {
+                System.out.printf(" %11s", POSITION_NAMES[p]);
+            }
+        }
+        System.out.printf(" %12s %7s%n", "total", "%");
+        for (int features : NODE_FEATURES) {
+            System.out.printf("%-38s", Searcher.featureNames(features));
+            long total = 0;
+            for (int p = 0; p < _positions.length; p += 1) {
+                Board b = _positions[p];
+                if (b.winner() != null) {
+                    continue;
+                }
+                AI ai = new AI().setHashSize(NODES_HASH_SIZE)
+                    .setFeatures(features);
+                ai.search(b, b.turn(), depth, Long.MAX_VALUE / 2, 0);
+                SearchStats stats = ai.stats();
+                if (features == NODE_FEATURES[0]) {
+                    values[p] = stats.value();
+                }
+                total += stats.nodes();
+                System.out.printf(" %10d%s", stats.nodes(),
+                                  stats.value() == values[p] ? " " : "*");
+            }
+            if (features == NODE_FEATURES[0]) {
+                total0 = total;
+            }
+            System.out.printf(" %12d %7.1f%n", total,
+                              100.0 * total / Math.max(1, total0));
+        }
+    }
+
+    /** Run BENCHMARK and print its results. */
+    private void run(Benchmark benchmark) {
+        for (int i = 0; i < WARMUP_ROUNDS; i += 1) {
+            round(benchmark);
+        }
+        long gcs0 = gcCount(), gcMillis0 = gcMillis();
+        double[] rates = new double[MEASURED_ROUNDS];
+        long passes = 0, bytes = 0;
+        for (int i = 0; i < MEASURED_ROUNDS; i += 1) {
+            long bytes0 = allocatedBytes();
+            long start = System.nanoTime();
+            long n = round(benchmark);
+            long elapsed = System.nanoTime() - start;
+            bytes += allocatedBytes() - bytes0;
+            passes += n;
+            rates[i] = n * 1e9 / elapsed;
+        }
+        double mean = Arrays.stream(rates).average().orElse(0);
+        double variance = Arrays.stream(rates)
+            .map(r -> (r - mean) * (r - mean)).sum()
+            / Math.max(1, MEASURED_ROUNDS - 1);
+        System.out.printf("%-16s %14.1f %10.1f %12.1f %6d %8d%n",
+                          benchmark._name, mean,
+                          100 * Math.sqrt(variance) / mean,
+                          bytes < 0 ? Double.NaN : (double) bytes / passes,
+                          gcCount() - gcs0, gcMillis() - gcMillis0);
+    }
+
+    /** Run BENCHMARK over all positions repeatedly for about ROUND_MILLIS
+     *  milliseconds, and return the number of passes made. */
+    private long round(Benchmark benchmark) {
+        long deadline = System.nanoTime() + ROUND_MILLIS * 1_000_000;
+        long passes = 0;
+        int sink = 0;
+        do {
+            for (Board b : _positions) {
+                sink += benchmark._op.applyAsInt(b);
+            }
+            passes += 1;
+        } while (System.nanoTime() - deadline < 0);
+        _sink += sink;
+        return passes;
+    }
+
+    /** Return the number of bytes allocated so far by the current thread,
+     *  or -1 if the JVM cannot tell. */
+    private static long allocatedBytes() {
+        if (THREADS instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) THREADS)
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    /** Return the total number of garbage collections so far. */
+    private static long gcCount() {
+        long n = 0;
+        for (GarbageCollectorMXBean gc
+                 : ManagementFactory.getGarbageCollectorMXBeans()) {
+            n += Math.max(0, gc.getCollectionCount());
+        }
+        return n;
+    }
+
+    /** Return the total time spent in garbage collection so far, in
+     *  milliseconds. */
+    private static long gcMillis() {
+        long n = 0;
+        for (GarbageCollectorMXBean gc
+                 : ManagementFactory.getGarbageCollectorMXBeans()) {
+            n += Math.max(0, gc.getCollectionTime());
+        }
+        return n;
+    }
+
+    /** Return a board set up as described by PATTERN, in the format of
+     *  Board.toString, with White to move. */
+    private static Board readBoard(String pattern) {
+        Board b = new Board();
+        int index = 0;
+        for (String s : pattern.trim().split("\\s+")) {
+            Square sq = Square.sq(index % Board.SIZE,
+                                  Board.SIZE - index / Board.SIZE - 1);
+            switch (s) {
+            case "W":
+                b.put(WHITE, sq);
+                break;
+            case "B":
+                b.put(BLACK, sq);
+                break;
+            case "S":
+                b.put(SPEAR, sq);
+                break;
+            default:
+                b.put(EMPTY, sq);
+                break;
+            }
+            index += 1;
+        }
+        return b;
+    }
+
+    /** A named operation on a position. */
+    private static class Benchmark {
+        /** A benchmark named NAME that applies OP. */
+        Benchmark(String name, ToIntFunction<Board> op) {
+            _name = name;
+            _op = op;
+        }
+
+        /** My name. */
+        private final String _name;
+        /** My operation, whose results are summed so that the JIT cannot
+         *  discard it. */
+        private final ToIntFunction<Board> _op;
+    }
+
+    /** Number of untimed rounds before measurement. */
+    static final int WARMUP_ROUNDS = 5;
+    /** Number of timed rounds. */
+    static final int MEASURED_ROUNDS = 10;
+    /** The approximate length of each round, in milliseconds. */
+    static final long ROUND_MILLIS = 1000;
+    /** The depth of the search benchmark. */
+    static final int SEARCH_DEPTH = 2;
+    /** The transposition table size for the search benchmark, in
+     *  megabytes. */
+    private static final int SEARCH_HASH_SIZE = 1;
+    /** The combinations of search features compared by nodeCounts. */
+    private static final int[] NODE_FEATURES = {
+        0, Searcher.PVS, Searcher.ASPIRATION, Searcher.DEFAULT_FEATURES,
+        Searcher.DEFAULT_FEATURES | Searcher.LMR,
+        Searcher.DEFAULT_FEATURES | Searcher.MULTI_CUT,
+        Searcher.DEFAULT_FEATURES | Searcher.PREFILTER,
+        Searcher.DEFAULT_FEATURES | Searcher.LMR | Searcher.MULTI_CUT
+        | Searcher.PREFILTER,
+    };
+    /** The transposition table size for nodeCounts, in megabytes. */
+    private static final int NODES_HASH_SIZE = 64;
+    /** The names of the positions, in order. */
+    private static final String[] POSITION_NAMES = {
+        "initial", "SMILE", "BLACK_LOSE", "WHITELOSS", "SP3"
+    };
+
+    /** Used to find allocation counts. */
+    private static final java.lang.management.ThreadMXBean THREADS =
+        ManagementFactory.getThreadMXBean();
+
+    /** The positions. */
+    private final Board[] _positions;
+    /** The legal moves in all positions, as strings. */
+    private final List<String> _moveStrings = new ArrayList<>();
+    /** The legal moves in all positions, and for each an illegal move
+     *  (whose spear lands where its amazon does). */
+    private final List<Move> _candidates = new ArrayList<>();
+    /** The benchmarks. */
+    private final List<Benchmark> _benchmarks = new ArrayList<>();
+    /** The sum of all benchmark results, kept so that the JIT cannot
+     *  discard the work that produces them. */
+    private long _sink;
+}
@@ -0,0 +1,131 @@
+package amazons;
+
+import static amazons.Board.SIZE;
+
+/** Utilities for sets of Squares represented as bitboards.  A set of
+ *  Squares on the 10x10 board takes two longs: bit I of the low word
+ *  stands for the Square with index I, for 0 <= I < 64, and bit I - 64 of
+ *  the high word stands for the Square with index I, for 64 <= I < 100.
+ *  Tables of sets are stored as flat arrays of longs, with the low and
+ *  high words of entry K at positions 2K and 2K + 1.
+ *  @author edwardsun
+ */
+final class Bits {
+
+    /** The bits of the high word that denote Squares. */
+    static final long HIGH_MASK = (1L << (SIZE * SIZE - 64)) - 1;
+
+    /** Return the word (0 for low, 1 for high) holding Square INDEX. */
+    static int word(int index) {
+        return index >>> 6;
+    }
+
+    /** Return the mask selecting Square INDEX within its word. */
+    static long bit(int index) {
+        return 1L << index;
+    }
+
+    /** Return the number of Squares in the set LO, HI. */
+    static int count(long lo, long hi) {
+        return Long.bitCount(lo) + Long.bitCount(hi);
+    }
+
+    /** Return the index of the lowest Square in word W of a set, where
+     *  WORD is 0 for the low word and 1 for the high word.  W must be
+     *  non-zero. */
+    static int first(long w, int word) {
+        return Long.numberOfTrailingZeros(w) + 64 * word;
+    }
+
+    /** The change in Square index for one step in each direction, with
+     *  directions numbered as for Square.queenMove. */
+    static final int[] STEP = { 10, 11, 1, -9, -10, -11, -1, 9 };
+
+    /** Return the low word of the set of Squares one step in direction
+     *  DIR from the Squares in LO, HI. */
+    static long shiftLow(long lo, long hi, int dir) {
+        int n = STEP[dir];
+        long r = n > 0 ? lo << n : (lo >>> -n) | (hi << (64 + n));
+        return r & DIR_MASK[2 * dir];
+    }
+
+    /** Return the high word of the set of Squares one step in direction
+     *  DIR from the Squares in LO, HI. */
+    static long shiftHigh(long lo, long hi, int dir) {
+        int n = STEP[dir];
+        long r = n > 0 ? (hi << n) | (lo >>> (64 - n)) : hi >>> -n;
+        return r & DIR_MASK[2 * dir + 1];
+    }
+
+    /** Set RESULT[0] and RESULT[1] to the low and high words of the set of
+     *  Squares in EMPTYLO, EMPTYHI that are one king move from some
+     *  Square in LO, HI. */
+    static void kingStep(long lo, long hi, long emptyLo, long emptyHi,
+                         long[] result) {
+        long rlo, rhi;
+        rlo = rhi = 0;
+        for (int dir = 0; dir < 8; dir += 1) {
+            rlo |= shiftLow(lo, hi, dir);
+            rhi |= shiftHigh(lo, hi, dir);
+        }
+        result[0] = rlo & emptyLo;
+        result[1] = rhi & emptyHi;
+    }
+
+    /** Set RESULT[0] and RESULT[1] to the low and high words of the set of
+     *  Squares in EMPTYLO, EMPTYHI that are reachable by a queen move
+     *  through Squares in EMPTYLO, EMPTYHI from some Square in LO, HI. */
+    static void queenStep(long lo, long hi, long emptyLo, long emptyHi,
+                          long[] result) {
+        long rlo, rhi;
+        rlo = rhi = 0;
+        for (int dir = 0; dir < 8; dir += 1) {
+            long slo = lo, shi = hi;
+            while ((slo | shi) != 0) {
+                long nlo = shiftLow(slo, shi, dir) & emptyLo;
+                shi = shiftHigh(slo, shi, dir) & emptyHi;
+                slo = nlo;
+                rlo |= slo;
+                rhi |= shi;
+            }
+        }
+        result[0] = rlo;
+        result[1] = rhi;
+    }
+
+    /** For each direction DIR, the Squares that are one step in direction
+     *  DIR from some Square, indexed as described in the class comment.
+     *  Masking with these removes bits that shifted off one edge of the
+     *  board and onto the other. */
+    private static final long[] DIR_MASK = new long[2 * 8];
+
+    /** The Squares adjacent (by a king move) to each Square, indexed as
+     *  described in the class comment. */
+    static final long[] NEIGHBORS = new long[2 * SIZE * SIZE];
+
+    static {
+        for (int i = 0; i < SIZE * SIZE; i += 1) {
+            int col = i % SIZE, row = i / SIZE;
+            for (int dc = -1; dc <= 1; dc += 1) {
+                for (int dr = -1; dr <= 1; dr += 1) {
+                    if ((dc != 0 || dr != 0)
+                        && Square.exists(col + dc, row + dr)) {
+                        int k = (row + dr) * SIZE + col + dc;
+                        NEIGHBORS[2 * i + word(k)] |= bit(k);
+                    }
+                }
+            }
+            for (int dir = 0; dir < 8; dir += 1) {
+                Square next = Square.sq(i).queenMoveBound(dir, 1);
+                if (next != null) {
+                    DIR_MASK[2 * dir + word(next.index())] |=
+                        bit(next.index());
+                }
+            }
+        }
+    }
+
+    /** Not instantiable. */
+    private Bits() {
+    }
+}
@@ -1,13 +1,19 @@
 package amazons;
 
-import java.util.HashMap;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
+import java.util.SplittableRandom;
 import java.util.Collections;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import static amazons.Piece.*;
 import static amazons.Square.sq;
+import static amazons.Utils.error;
 
 
 /** The state of an Amazons Game.
@@ -18,6 +24,11 @@ class Board {
     /** The number of squares on a side of the board. */
     static final int SIZE = 10;
 
+    /** An upper bound on the number of legal moves in any position: four
+     *  amazons, each with at most 35 destinations, from each of which
+     *  there are at most 35 spear throws. */
+    static final int MAX_MOVES = 4 * 35 * 35;
+
     /** Initializes a game board with SIZE squares on a side in the
      *  initial position. */
     Board() {
@@ -31,28 +42,34 @@ class Board {
 
     /** Copies MODEL into me. */
     void copy(Board model) {
-        this._map = new HashMap<Square, Piece>(model._map);
+        System.arraycopy(model._bits, 0, _bits, 0, _bits.length);
         this._turn = model._turn;
-        this._winner = model._winner;
-        this._history = new ArrayList<Move>(model._history);
+        this._hash = model._hash;
+        this._mobility = model._mobility;
+        System.arraycopy(model._history, 0, _history, 0, model._numMoves);
+        System.arraycopy(model._savedTurns, 0, _savedTurns, 0,
+                         model._numMoves);
+        System.arraycopy(model._savedMobility, 0, _savedMobility, 0,
+                         model._numMoves);
+        this._numMoves = model._numMoves;
     }
 
     /** Clears the board to the initial position. */
     void init() {
-        _map = new HashMap<Square, Piece>();
-
-        _map.put(sq(3, 0), WHITE);
-        _map.put(sq(6, 0), WHITE);
-        _map.put(sq(9, 3), WHITE);
-        _map.put(sq(9, 6), BLACK);
-        _map.put(sq(6, 9), BLACK);
-        _map.put(sq(3, 9), BLACK);
-        _map.put(sq(0, 6), BLACK);
-        _map.put(sq(0, 3), WHITE);
+        Arrays.fill(_bits, 0);
+        _hash = 0;
+
+        put(WHITE, sq(3, 0));
+        put(WHITE, sq(6, 0));
+        put(WHITE, sq(9, 3));
+        put(BLACK, sq(9, 6));
+        put(BLACK, sq(6, 9));
+        put(BLACK, sq(3, 9));
+        put(BLACK, sq(0, 6));
+        put(WHITE, sq(0, 3));
 
         _turn = WHITE;
-        _winner = null;
-        _history = new ArrayList<Move>();
+        _numMoves = 0;
     }
 
     /** Return the Piece whose move it is (WHITE or BLACK). */
@@ -63,44 +80,129 @@ class Board {
     /** Return the number of moves (that have not been undone) for this
      *  board. */
     int numMoves() {
-        return _history.size();
+        return _numMoves;
     }
 
     /** Return the winner in the current position, or null if the game is
      *  not yet finished. */
     Piece winner() {
-        if (_winner == null) {
-            Iterator<Move> legal = legalMoves(BLACK);
-            if (!legal.hasNext()) {
-                _winner = WHITE;
-            }
+        if (!hasMove(BLACK)) {
+            return WHITE;
+        } else if (!hasMove(WHITE)) {
+            return BLACK;
+        } else {
+            return null;
         }
+    }
 
-        if (_winner == null) {
-            Iterator<Move> legal = legalMoves(WHITE);
-            if (!legal.hasNext()) {
-                _winner = BLACK;
-            }
+    /** Return true iff SIDE (WHITE or BLACK) has a legal move: that is,
+     *  iff one of its amazons has an empty neighbor to move to (the spear
+     *  can always be thrown back to the square the amazon left).  The
+     *  answer is cached until the board changes. */
+    boolean hasMove(Piece side) {
+        int known = 1 << layer(side), can = known << 1;
+        if ((_mobility & known) == 0) {
+            _mobility |= known | (anyMove(side) ? can : 0);
         }
-
-        return _winner;
+        return (_mobility & can) != 0;
     }
 
-    /** Returns map. */
-    HashMap<Square, Piece> map() {
-        return _map;
+    /** Return true iff SIDE has a legal move, as for hasMove, computed
+     *  afresh. */
+    private boolean anyMove(Piece side) {
+        neighbors(side, _step);
+        return (_step[0] & ~occupied(0)) != 0
+            || (_step[1] & ~occupied(1)) != 0;
     }
 
+    /** Set RESULT[0] and RESULT[1] to the low and high words of the set of
+     *  squares (empty or not) adjacent to some amazon of SIDE. */
+    void neighbors(Piece side, long[] result) {
+        int layer = layer(side);
+        long lo, hi;
+        lo = hi = 0;
+        for (int w = 0; w < 2; w += 1) {
+            for (long b = _bits[layer + w]; b != 0; b &= b - 1) {
+                int k = Bits.first(b, w);
+                lo |= Bits.NEIGHBORS[2 * k];
+                hi |= Bits.NEIGHBORS[2 * k + 1];
+            }
+        }
+        result[0] = lo;
+        result[1] = hi;
+    }
 
     /** Return the contents the square at S. */
     final Piece get(Square s) {
-        if (_map.containsKey(s)) {
-            return _map.get(s);
+        if (s == null) {
+            return EMPTY;
+        }
+        return get(s.index());
+    }
+
+    /** Return the contents of the square with index INDEX. */
+    final Piece get(int index) {
+        int w = Bits.word(index);
+        long b = Bits.bit(index);
+        if ((_bits[w] & b) != 0) {
+            return WHITE;
+        } else if ((_bits[2 + w] & b) != 0) {
+            return BLACK;
+        } else if ((_bits[4 + w] & b) != 0) {
+            return SPEAR;
         } else {
             return EMPTY;
         }
     }
 
+    /** Return the number of empty squares. */
+    int emptyCount() {
+        return SIZE * SIZE - Bits.count(occupied(0), occupied(1));
+    }
+
+    /** Return true iff the square with index INDEX is empty. */
+    final boolean isEmpty(int index) {
+        return (occupied(Bits.word(index)) & Bits.bit(index)) == 0;
+    }
+
+    /** Return word W (0 or 1) of the set of occupied squares. */
+    private long occupied(int w) {
+        return _bits[w] | _bits[2 + w] | _bits[4 + w];
+    }
+
+    /** Return word W (0 or 1) of the set of squares holding P (WHITE,
+     *  BLACK, or SPEAR). */
+    long bits(Piece p, int w) {
+        return _bits[layer(p) + w];
+    }
+
+    /** Return a hash of the contents of the squares in the set LO, HI
+     *  (see Bits): which of them hold which amazons, and which are
+     *  empty.  Two boards with the same contents in those squares have
+     *  the same hash there, whatever the rest of the board holds. */
+    long regionHash(long lo, long hi) {
+        long hash = 0;
+        for (int w = 0; w < 2; w += 1) {
+            long mask = w == 0 ? lo : hi;
+            for (long b = _bits[w] & mask; b != 0; b &= b - 1) {
+                hash ^= ZOBRIST[Bits.first(b, w)];
+            }
+            for (long b = _bits[2 + w] & mask; b != 0; b &= b - 1) {
+                hash ^= ZOBRIST[SIZE * SIZE + Bits.first(b, w)];
+            }
+            for (long b = ~occupied(w) & mask; b != 0; b &= b - 1) {
+                hash ^= ZOBRIST[2 * SIZE * SIZE + Bits.first(b, w)];
+            }
+        }
+        return hash;
+    }
+
+    /** Return the position in _bits of the low word of the layer for
+     *  P (WHITE, BLACK, or SPEAR). */
+    private static int layer(Piece p) {
+        return 2 * (p.ordinal() - WHITE.ordinal());
+    }
+
     /** Return the contents of the square at (COL, ROW), where
      *  0 <= COL, ROW <= 9. */
     final Piece get(int col, int row) {
@@ -115,17 +217,23 @@ class Board {
 
     /** Set square S to P. */
     final void put(Piece p, Square s) {
-        if (p == EMPTY) {
-            _map.remove(s);
-            return;
+        int k = s.index(), w = Bits.word(k);
+        long b = Bits.bit(k);
+        Piece old = get(k);
+        _mobility = 0;
+        if (old != EMPTY) {
+            _bits[layer(old) + w] &= ~b;
+            _hash ^= ZOBRIST[SIZE * SIZE * (layer(old) / 2) + k];
+        }
+        if (p != EMPTY) {
+            _bits[layer(p) + w] |= b;
+            _hash ^= ZOBRIST[SIZE * SIZE * (layer(p) / 2) + k];
         }
-        _map.put(s, p);
     }
 
     /** Set square (COL, ROW) to P. */
     final void put(Piece p, int col, int row) {
         put(p, sq(col, row));
-        _winner = null;
     }
 
     /** Set square COL ROW to P. */
@@ -149,9 +257,7 @@ class Board {
         if (get(asEmpty) == side && (from != asEmpty)) {
             return false;
         }
-        int dir = to.direction(asEmpty);
-        for (int steps = 1; steps < SIZE; steps++) {
-            Square next = to.queenMove(dir, steps);
+        for (Square next : to.ray(to.direction(asEmpty))) {
             Piece p = get(next);
             if (next == from) {
                 if (p == side.opponent()) {
@@ -179,14 +285,11 @@ class Board {
         if (!from.isQueenMove(to)) {
             return false;
         }
-        while (from != to) {
-            int dir = from.direction(to);
-            Square a = from.queenMove(dir, 1);
-            Piece p = get(a);
-            if (p == EMPTY) {
-                from = a;
-            } else {
+        for (Square next : from.ray(from.direction(to))) {
+            if (!isEmpty(next.index())) {
                 return false;
+            } else if (next == to) {
+                break;
             }
         }
         return true;
@@ -216,27 +319,91 @@ class Board {
         put(SPEAR, spear);
     }
 
-    /** Move according to MOVE, assuming it is a legal move. */
+    /** Move according to MOVE, if it is a legal move. */
     void makeMove(Move move) {
         if (isLegal(move.from(), move.to(), move.spear())) {
-            makeMove(move.from(), move.to(), move.spear());
-            _history.add(move);
+            makeMove(move.packed());
         }
     }
 
-    /** Undo one move.  Has no effect on the initial board. */
+    /** Make the packed move MOVE (see Move.pack), assuming that it is a
+     *  legal move.  As for the other makeMove methods, the turn is not
+     *  changed (see swap).  The state needed to reverse the move exactly
+     *  is saved, so that undo restores the board, turn, and cached
+     *  mobility (see hasMove) as they were. */
+    void makeMove(int move) {
+        _history[_numMoves] = move;
+        _savedTurns[_numMoves] = _turn;
+        _savedMobility[_numMoves] = (byte) _mobility;
+        _numMoves += 1;
+        makeMove(sq(Move.fromIndex(move)), sq(Move.toIndex(move)),
+                 sq(Move.spearIndex(move)));
+    }
+
+    /** Make the amazon half of the packed move MOVE, moving the amazon but
+     *  not throwing the spear (see throwSpear).  As for makeMove(int),
+     *  MOVE must be legal, the turn is not changed, and the move is
+     *  reversed by undo, once any spear thrown has been retracted. */
+    void makeAmazonMove(int move) {
+        _history[_numMoves] = Move.amazonMove(move);
+        _savedTurns[_numMoves] = _turn;
+        _savedMobility[_numMoves] = (byte) _mobility;
+        _numMoves += 1;
+        Square from = sq(Move.fromIndex(move));
+        put(get(from), sq(Move.toIndex(move)));
+        put(EMPTY, from);
+    }
+
+    /** Complete the last move, which must have been made by
+     *  makeAmazonMove, by throwing its spear to the square with index
+     *  SPEAR. */
+    void throwSpear(int spear) {
+        int last = _history[_numMoves - 1];
+        _history[_numMoves - 1] =
+            Move.pack(Move.fromIndex(last), Move.toIndex(last), spear);
+        put(SPEAR, sq(spear));
+    }
+
+    /** Reverse the last throwSpear. */
+    void retractSpear() {
+        int last = _history[_numMoves - 1];
+        put(EMPTY, sq(Move.spearIndex(last)));
+        _history[_numMoves - 1] = Move.amazonMove(last);
+    }
+
+    /** Undo one move, restoring the turn and cached mobility as they were
+     *  when it was made.  Has no effect on the initial board. */
     void undo() {
-        Move m = _history.remove(_history.size() - 1);
+        if (_numMoves == 0) {
+            return;
+        }
+        _numMoves -= 1;
+        int m = _history[_numMoves];
+        Square from = sq(Move.fromIndex(m)), to = sq(Move.toIndex(m));
 
-        put(EMPTY, m.spear());
-        Piece prev = get(m.to());
-        put(prev, m.from());
-        put(EMPTY, m.to());
+        if (Move.spearIndex(m) != Move.NO_SPEAR) {
+            put(EMPTY, sq(Move.spearIndex(m)));
+        }
+        put(get(to), from);
+        put(EMPTY, to);
+        if (_turn != _savedTurns[_numMoves]) {
+            swap();
+        }
+        _mobility = _savedMobility[_numMoves];
     }
 
-    /** Returns swap. */
+    /** Give the turn to the other side. */
     void swap() {
         _turn = _turn.opponent();
+        _hash ^= BLACK_TO_MOVE;
+    }
+
+    /** Return the Zobrist hash of the current position: the exclusive or
+     *  of a fixed random key for each (piece, square) pair on the board,
+     *  and of BLACK_TO_MOVE if it is Black's turn.  Positions reached by
+     *  different orders of the same moves have the same hash. */
+    long hash() {
+        return _hash;
     }
 
     /** Return an Iterator over the Squares that are reachable by an
@@ -250,6 +417,178 @@ class Board {
         return new ReachableFromIterator(from, asEmpty);
     }
 
+    /** Store all legal moves for SIDE (regardless of whose turn it is) in
+     *  BUFFER as packed moves (see Move.pack), returning their number.
+     *  BUFFER must have room for MAX_MOVES moves.  The moves appear in the
+     *  same order as from legalMoves(SIDE). */
+    int generateMoves(Piece side, int[] buffer) {
+        return generateMoves(side, -1L, -1L, buffer);
+    }
+
+    /** Store the legal moves of the amazons of SIDE that stand on squares
+     *  in the set LO, HI (the low and high words of a set of squares, as
+     *  in Bits) in BUFFER, as for generateMoves(SIDE, BUFFER), returning
+     *  their number.  The work done is proportional to the number of
+     *  those amazons' moves, not to the number of all SIDE's moves. */
+    int generateMoves(Piece side, long lo, long hi, int[] buffer) {
+        int n;
+        int layer = layer(side);
+        n = 0;
+        for (int w = 0; w < 2; w += 1) {
+            for (long b = _bits[layer + w] & (w == 0 ? lo : hi); b != 0;
+                 b &= b - 1) {
+                int from = Bits.first(b, w);
+                for (int dir = 0; dir < 8; dir += 1) {
+                    for (int to = step(from, dir); to >= 0 && isEmpty(to);
+                         to = step(to, dir)) {
+                        n = addThrows(from, to, buffer, n);
+                    }
+                }
+            }
+        }
+        return n;
+    }
+
+    /** Store the amazon halves of all legal moves for SIDE in BUFFER (see
+     *  Move.amazonMove), returning their number.  BUFFER must have room
+     *  for MAX_MOVES moves. */
+    int generateAmazonMoves(Piece side, int[] buffer) {
+        int n;
+        int layer = layer(side);
+        n = 0;
+        for (int w = 0; w < 2; w += 1) {
+            for (long b = _bits[layer + w]; b != 0; b &= b - 1) {
+                int from = Bits.first(b, w);
+                for (int dir = 0; dir < 8; dir += 1) {
+                    for (int to = step(from, dir); to >= 0 && isEmpty(to);
+                         to = step(to, dir)) {
+                        buffer[n] = Move.amazonMove(Move.pack(from, to, 0));
+                        n += 1;
+                    }
+                }
+            }
+        }
+        return n;
+    }
+
+    /** Store in BUFFER all the legal moves that complete the amazon half
+     *  move MOVE, returning their number.  The amazon may or may not
+     *  have been moved already (by makeAmazonMove). */
+    int generateThrows(int move, int[] buffer) {
+        return addThrows(Move.fromIndex(move), Move.toIndex(move), buffer, 0);
+    }
+
+    /** Store the packed moves FROM-TO(s) in BUFFER, starting at position N,
+     *  for each square s reachable from TO when FROM is treated as empty.
+     *  Returns the new number of moves in BUFFER. */
+    private int addThrows(int from, int to, int[] buffer, int n) {
+        for (int dir = 0; dir < 8; dir += 1) {
+            for (int spear = step(to, dir);
+                 spear >= 0 && (spear == from || isEmpty(spear));
+                 spear = step(spear, dir)) {
+                buffer[n] = Move.pack(from, to, spear);
+                n += 1;
+            }
+        }
+        return n;
+    }
+
+    /** Return the number of legal moves for SIDE (regardless of whose turn
+     *  it is), which is the number generateMoves(SIDE, ...) would store,
+     *  without generating them.  For each amazon destination, the spear
+     *  throws are counted all at once from a bitboard of the squares a
+     *  queen reaches from there. */
+    int countMoves(Piece side) {
+        int n;
+        int layer = layer(side);
+        long emptyLo = ~occupied(0), emptyHi = ~occupied(1) & Bits.HIGH_MASK;
+        n = 0;
+        for (int w = 0; w < 2; w += 1) {
+            for (long b = _bits[layer + w]; b != 0; b &= b - 1) {
+                int from = Bits.first(b, w);
+                long vacatedLo = emptyLo | (w == 0 ? Bits.bit(from) : 0),
+                    vacatedHi = emptyHi | (w == 1 ? Bits.bit(from) : 0);
+                for (int dir = 0; dir < 8; dir += 1) {
+                    for (int to = step(from, dir); to >= 0 && isEmpty(to);
+                         to = step(to, dir)) {
+                        long bit = Bits.bit(to);
+                        if (Bits.word(to) == 0) {
+                            Bits.queenStep(bit, 0, vacatedLo, vacatedHi,
+                                           _step);
+                        } else {
+                            Bits.queenStep(0, bit, vacatedLo, vacatedHi,
+                                           _step);
+                        }
+                        n += Bits.count(_step[0], _step[1]);
+                    }
+                }
+            }
+        }
+        return n;
+    }
+
+    /** Return the number of sequences of DEPTH >= 0 legal moves from the
+     *  current position, starting with the side to move (the leaves of
+     *  the game tree to that depth; games that end sooner contribute
+     *  nothing).  The last ply is counted by countMoves, without
+     *  generating its moves. */
+    long perft(int depth) {
+        return perft(depth, new int[Math.max(0, depth - 1)][MAX_MOVES]);
+    }
+
+    /** As for perft(DEPTH), but with the moves at the root divided among
+     *  tasks run in POOL, each on its own copy of the board. */
+    long perft(int depth, ForkJoinPool pool) {
+        if (depth <= 1) {
+            return perft(depth);
+        }
+        int[] moves = new int[MAX_MOVES];
+        int n = generateMoves(_turn, moves);
+        List<Callable<Long>> tasks = new ArrayList<>();
+        for (int i = 0; i < n; i += 1) {
+            Board child = new Board(this);
+            child.makeMove(moves[i]);
+            child.swap();
+            tasks.add(() -> child.perft(depth - 1));
+        }
+        long total = 0;
+        for (Future<Long> result : pool.invokeAll(tasks)) {
+            try {
+                total += result.get();
+            } catch (InterruptedException | ExecutionException excp) {
+                throw new IllegalStateException("perft failed: "
+                                                + excp.getMessage());
+            }
+        }
+        return total;
+    }
+
+    /** Return perft(DEPTH), using BUFFERS[DEPTH - 2] to hold the moves at
+     *  this level. */
+    private long perft(int depth, int[][] buffers) {
+        if (depth == 0) {
+            return 1;
+        } else if (depth == 1) {
+            return countMoves(_turn);
+        }
+        int[] moves = buffers[depth - 2];
+        int n = generateMoves(_turn, moves);
+        long total = 0;
+        for (int i = 0; i < n; i += 1) {
+            makeMove(moves[i]);
+            swap();
+            total += perft(depth - 1, buffers);
+            undo();
+        }
+        return total;
+    }
+
+    /** Return the index of the square one step in direction DIR from the
+     *  square with index INDEX, or -1 if there is none. */
+    private static int step(int index, int dir) {
+        return Square.step(index, dir);
+    }
+
     /** Return an Iterator over all legal moves on the current board. */
     Iterator<Move> legalMoves() {
         return new LegalMoveIterator(_turn);
@@ -268,7 +607,8 @@ class Board {
          *  treating ASEMPTY as empty. */
         ReachableFromIterator(Square from, Square asEmpty) {
             _from = from;
-            _dir = -1;
+            _dir = 0;
+            _ray = from.ray(0);
             _steps = 0;
             _asEmpty = asEmpty;
             toNext();
@@ -281,40 +621,24 @@ class Board {
 
         @Override
         public Square next() {
-            Square current = _from.queenMove(_dir, _steps);
+            Square current = _ray[_steps];
+            _steps++;
             toNext();
             return current;
         }
 
-        /** Advance _dir and _steps, so that the next valid Square is
-         *  _steps steps in direction _dir from _from. */
+        /** Advance _dir and _steps, if necessary, so that the next valid
+         *  Square is _ray[_steps]. */
         private void toNext() {
-            if (!hasNext()) {
-                return;
-            }
-
-            if (_dir < 0) {
-                _dir++;
-            }
-
-            _steps++;
-            Square current = _from.queenMoveBound(_dir, _steps);
-
-            while (current == null
-                    || (current != _asEmpty
-                    && Board.this.get(current) != EMPTY)) {
+            while (_steps >= _ray.length
+                   || (_ray[_steps] != _asEmpty
+                       && !isEmpty(_ray[_steps].index()))) {
                 _dir++;
                 if (_dir >= 8) {
                     break;
                 }
-                _steps = 1;
-
-                current = _from.queenMoveBound(_dir, _steps);
-                if (current == null
-                        || Board.this.get(_from.queenMoveBound(
-                                _dir, _steps + 1)) != EMPTY) {
-                    continue;
-                }
+                _ray = _from.ray(_dir);
+                _steps = 0;
             }
         }
 
@@ -322,7 +646,9 @@ class Board {
         private Square _from;
         /** Current direction. */
         private int _dir;
-        /** Current distance. */
+        /** The Squares in direction _dir from _from. */
+        private Square[] _ray;
+        /** The position in _ray of the next Square. */
         private int _steps;
         /** Square treated as empty. */
         private Square _asEmpty;
@@ -333,66 +659,43 @@ class Board {
 
         /** All legal moves for SIDE (WHITE or BLACK). */
         LegalMoveIterator(Piece side) {
-            _startingSquares = Square.iterator();
+            _startingSquares = pieces(side);
             _spearThrows = NO_SQUARES;
             _pieceMoves = NO_SQUARES;
-            _fromPiece = side;
             toNext();
         }
 
         @Override
         public boolean hasNext() {
-            boolean a = _startingSquares.hasNext();
-            return a;
+            return _spearThrows.hasNext();
         }
 
         @Override
         public Move next() {
-
             Square spear = _spearThrows.next();
             Move a = Move.mv(_start, _nextSquare, spear);
             if (!_spearThrows.hasNext()) {
                 toNext();
             }
-
             return a;
         }
 
         /** Advance so that the next valid Move is
          *  _start-_nextSquare(sp), where sp is the next value of
-         *  _spearThrows. */
+         *  _spearThrows.  Since a spear may always be thrown back to
+         *  _start, every piece move has at least one spear throw. */
         private void toNext() {
-            if (!_startingSquares.hasNext()) {
-                return;
-            }
-
             while (!_pieceMoves.hasNext()) {
-                _start = _startingSquares.next();
-                while (get(_start) != _fromPiece) {
-                    if (!_startingSquares.hasNext()) {
-                        return;
-                    }
-                    _start = _startingSquares.next();
-                }
-                _pieceMoves = Board.this.reachableFrom(_start, null);
-                if (_pieceMoves.hasNext()) {
-                    _nextSquare = _pieceMoves.next();
-                    _spearThrows = Board.this.
-                            reachableFrom(_nextSquare, _start);
+                if (!_startingSquares.hasNext()) {
                     return;
                 }
-
-            }
-
-            if (_pieceMoves.hasNext()) {
-                _nextSquare = _pieceMoves.next();
-                _spearThrows = Board.this.reachableFrom(_nextSquare, _start);
+                _start = _startingSquares.next();
+                _pieceMoves = Board.this.reachableFrom(_start, null);
             }
-
+            _nextSquare = _pieceMoves.next();
+            _spearThrows = Board.this.reachableFrom(_nextSquare, _start);
         }
 
-        /** Color of side whose moves we are iterating. */
-        private Piece _fromPiece;
         /** Current starting square. */
         private Square _start;
         /** Remaining starting squares to consider. */
@@ -408,18 +711,149 @@ class Board {
     @Override
     /** Board String representation. */
     public String toString() {
-        String rep = "";
+        StringBuilder rep = new StringBuilder(SIZE * (2 * SIZE + 3));
         for (int i = SIZE - 1; i >= 0; i--) {
-            rep += "   ";
+            rep.append("   ");
             for (int j = 0; j < SIZE; j++) {
-                rep += get(j, i).toString();
+                rep.append(get(j, i).toString());
                 if (j != SIZE - 1) {
-                    rep += " ";
+                    rep.append(' ');
+                }
+            }
+            rep.append('\n');
+        }
+        return rep.toString();
+    }
+
+    /** Return my position in compact notation.  As in chess's FEN, the
+     *  rows are listed from the top (row 10) down, separated by '/', each
+     *  giving its squares from left to right as W, B, or S for pieces and
+     *  a decimal count for each run of empty squares.  A space and w or b
+     *  (the side to move) follow.  The initial position is
+     *  3B2B3/10/10/B8B/10/10/W8W/10/10/3W2W3 w. */
+    String toNotation() {
+        StringBuilder out = new StringBuilder(4 * SIZE);
+        for (int row = SIZE - 1; row >= 0; row -= 1) {
+            int empties = 0;
+            for (int col = 0; col < SIZE; col += 1) {
+                Piece p = get(col, row);
+                if (p == EMPTY) {
+                    empties += 1;
+                } else {
+                    if (empties > 0) {
+                        out.append(empties);
+                        empties = 0;
+                    }
+                    out.append(p.toString());
+                }
+            }
+            if (empties > 0) {
+                out.append(empties);
+            }
+            if (row > 0) {
+                out.append('/');
+            }
+        }
+        return out.append(' ').append(_turn == WHITE ? 'w' : 'b').toString();
+    }
+
+    /** Set me to the position in NOTATION (see toNotation), with no
+     *  moves to undo.  Throws IllegalArgumentException, leaving me
+     *  unchanged, if NOTATION is not a valid position. */
+    void setNotation(String notation) {
+        byte[] codes = new byte[SIZE * SIZE];
+        int n = notation.length(), i = 0;
+        for (int row = SIZE - 1; row >= 0; row -= 1) {
+            int col = 0;
+            while (col < SIZE && i < n) {
+                char c = notation.charAt(i);
+                if (c >= '1' && c <= '9') {
+                    int empties = c - '0';
+                    i += 1;
+                    if (i < n && Character.isDigit(notation.charAt(i))) {
+                        empties = 10 * empties + notation.charAt(i) - '0';
+                        i += 1;
+                    }
+                    col += empties;
+                } else {
+                    Piece p = c == 'W' ? WHITE : c == 'B' ? BLACK
+                        : c == 'S' ? SPEAR : null;
+                    if (p == null) {
+                        break;
+                    }
+                    codes[row * SIZE + col] = (byte) p.ordinal();
+                    col += 1;
+                    i += 1;
+                }
+            }
+            if (col != SIZE || i == n
+                || notation.charAt(i) != (row > 0 ? '/' : ' ')) {
+                throw error("bad position: %s", notation);
+            }
+            i += 1;
+        }
+        if (i != n - 1 || (notation.charAt(i) != 'w'
+                           && notation.charAt(i) != 'b')) {
+            throw error("bad position: %s", notation);
+        }
+        setContents(codes, 0, notation.charAt(i) == 'w' ? WHITE : BLACK);
+    }
+
+    /** The size in bytes of a position in binary form (see
+     *  writePosition). */
+    static final int POSITION_BYTES = (SIZE * SIZE + 3) / 4 + 1;
+
+    /** Store my position in binary form in BUFFER, starting at OFFSET.
+     *  Each square takes two bits, holding the ordinal of its Piece:
+     *  square K's are bits 2 * (K % 4) and up of byte K / 4.  The last
+     *  byte is 0 if White is to move and 1 if Black is.  The form takes
+     *  POSITION_BYTES bytes in all. */
+    void writePosition(byte[] buffer, int offset) {
+        Arrays.fill(buffer, offset, offset + POSITION_BYTES, (byte) 0);
+        for (int k = 0; k < SIZE * SIZE; k += 1) {
+            buffer[offset + k / 4] |= get(k).ordinal() << (2 * (k % 4));
+        }
+        buffer[offset + POSITION_BYTES - 1] = (byte) (_turn == WHITE ? 0 : 1);
+    }
+
+    /** Set me to the position stored in binary form in BUFFER at OFFSET
+     *  (see writePosition), with no moves to undo.  Throws
+     *  IllegalArgumentException, leaving me unchanged, if BUFFER does
+     *  not hold a valid position there. */
+    void readPosition(byte[] buffer, int offset) {
+        if (offset < 0 || offset + POSITION_BYTES > buffer.length
+            || (buffer[offset + POSITION_BYTES - 1] & ~1) != 0) {
+            throw error("bad binary position");
+        }
+        setContents(null, offset,
+                    buffer[offset + POSITION_BYTES - 1] == 0 ? WHITE : BLACK);
+        for (int k = 0; k < SIZE * SIZE; k += 1) {
+            int code = (buffer[offset + k / 4] >>> (2 * (k % 4))) & 3;
+            if (code != 0) {
+                put(PIECES[code], sq(k));
+            }
+        }
+    }
+
+    /** Clear me, with no moves to undo and TURN to move, and then, if
+     *  CODES is non-null, put the pieces whose ordinals are in CODES
+     *  starting at OFFSET on the squares with successive indices. */
+    private void setContents(byte[] codes, int offset, Piece turn) {
+        Arrays.fill(_bits, 0);
+        _hash = 0;
+        _mobility = 0;
+        _numMoves = 0;
+        _turn = WHITE;
+        if (turn != WHITE) {
+            swap();
+        }
+        if (codes != null) {
+            for (int k = 0; k < SIZE * SIZE; k += 1) {
+                if (codes[offset + k] != 0) {
+                    put(PIECES[codes[offset + k]], sq(k));
                 }
             }
-            rep += "\n";
         }
-        return rep;
     }
 
     /** Board Score representation.
@@ -439,40 +873,138 @@ class Board {
      * @param side side
      * */
     int freedom(Piece side) {
-        Iterator<Square> it = _map.keySet()
-                .stream()
-                .filter(i -> _map.get(i) == side)
-                .iterator();
+        int layer = layer(side);
+        long emptyLo = ~occupied(0), emptyHi = ~occupied(1);
         int total = 0;
-        while (it.hasNext()) {
-            Square from = it.next();
-            for (int dir = 0; dir < 8; dir++) {
-                Square neighbor = from.queenMoveBound(dir, 1);
-                if (neighbor == null) {
-                    continue;
-                }
-                Piece p = get(neighbor);
-                if (p == Piece.EMPTY) {
-                    total += 1;
-                }
+        for (int w = 0; w < 2; w += 1) {
+            for (long b = _bits[layer + w]; b != 0; b &= b - 1) {
+                int k = Bits.first(b, w);
+                total += Bits.count(Bits.NEIGHBORS[2 * k] & emptyLo,
+                                    Bits.NEIGHBORS[2 * k + 1] & emptyHi);
             }
         }
         return total;
     }
 
+    /** Return the number of empty squares that White reaches in fewer
+     *  queen moves than Black, less the number that Black reaches in
+     *  fewer queen moves than White.  Squares that both reach in the
+     *  same number of moves, or that neither reaches, count for neither
+     *  side. */
+    int queenTerritory() {
+        return territory(true);
+    }
+
+    /** Return the number of empty squares that White reaches in fewer
+     *  king moves than Black, less the number that Black reaches in
+     *  fewer king moves than White, as for queenTerritory. */
+    int kingTerritory() {
+        return territory(false);
+    }
+
+    /** Return queenTerritory() if QUEEN, and otherwise kingTerritory().
+     *  Computes the distances from each side's amazons by a breadth-first
+     *  search of both sides at once, one move at a time, over sets of
+     *  squares. */
+    private int territory(boolean queen) {
+        long emptyLo = ~occupied(0), emptyHi = ~occupied(1) & Bits.HIGH_MASK;
+        long whiteLo = _bits[0], whiteHi = _bits[1],
+            blackLo = _bits[2], blackHi = _bits[3];
+        long wfLo = whiteLo, wfHi = whiteHi, bfLo = blackLo, bfHi = blackHi;
+        long[] step = _step;
+        int owned = 0;
+        while ((wfLo | wfHi | bfLo | bfHi) != 0) {
+            if (queen) {
+                Bits.queenStep(wfLo, wfHi, emptyLo, emptyHi, step);
+            } else {
+                Bits.kingStep(wfLo, wfHi, emptyLo, emptyHi, step);
+            }
+            wfLo = step[0] & ~whiteLo;
+            wfHi = step[1] & ~whiteHi;
+            if (queen) {
+                Bits.queenStep(bfLo, bfHi, emptyLo, emptyHi, step);
+            } else {
+                Bits.kingStep(bfLo, bfHi, emptyLo, emptyHi, step);
+            }
+            bfLo = step[0] & ~blackLo;
+            bfHi = step[1] & ~blackHi;
+            owned += Bits.count(wfLo & ~(blackLo | bfLo),
+                                wfHi & ~(blackHi | bfHi))
+                - Bits.count(bfLo & ~(whiteLo | wfLo),
+                             bfHi & ~(whiteHi | wfHi));
+            whiteLo |= wfLo;
+            whiteHi |= wfHi;
+            blackLo |= bfLo;
+            blackHi |= bfHi;
+        }
+        return owned;
+    }
+
+    /** Return an Iterator over the Squares holding P (WHITE, BLACK, or
+     *  SPEAR), in increasing order of index. */
+    Iterator<Square> pieces(Piece p) {
+        List<Square> result = new ArrayList<>();
+        int layer = layer(p);
+        for (int w = 0; w < 2; w += 1) {
+            for (long b = _bits[layer + w]; b != 0; b &= b - 1) {
+                result.add(sq(Bits.first(b, w)));
+            }
+        }
+        return result.iterator();
+    }
+
+    /** Zobrist keys for each (piece, square) pair, in the same order as
+     *  the layers of _bits: keys for WHITE on squares 0-99, then BLACK,
+     *  then SPEAR.  The keys are fixed, so that hashes are the same from
+     *  one run to the next. */
+    private static final long[] ZOBRIST = new long[3 * SIZE * SIZE];
+
+    /** Zobrist key for Black's turn. */
+    private static final long BLACK_TO_MOVE;
+
+    static {
+        SplittableRandom keys = new SplittableRandom(0x5eed_a3a2_0b5L);
+        for (int i = 0; i < ZOBRIST.length; i += 1) {
+            ZOBRIST[i] = keys.nextLong();
+        }
+        BLACK_TO_MOVE = keys.nextLong();
+    }
+
+    /** The Pieces, indexed by ordinal. */
+    private static final Piece[] PIECES = Piece.values();
+
     /** An empty iterator for initialization. */
     private static final Iterator<Square> NO_SQUARES =
         Collections.emptyIterator();
 
     /** Piece whose turn it is (BLACK or WHITE). */
     private Piece _turn;
-    /** Cached value of winner on this board, or EMPTY if it has not been
-     *  computed. */
-    private Piece _winner;
-
-    /** HashMap of Board. */
-    private HashMap<Square, Piece> _map;
-
-    /** Make a List to record all Move objects. */
-    private List<Move> _history;
+    /** The cached results of hasMove: for each side, the bit 1 << layer
+     *  is set once its result is known, and the bit 2 << layer holds the
+     *  result.  Cleared whenever a square changes. */
+    private int _mobility;
+
+    /** The contents of the board as bitboards (see Bits): the sets of
+     *  squares holding WHITE, BLACK, and SPEAR, in that order, each
+     *  occupying two consecutive words. */
+    private final long[] _bits = new long[6];
+
+    /** Scratch space for the results of neighbors, Bits.queenStep, and
+     *  Bits.kingStep. */
+    private final long[] _step = new long[2];
+
+    /** The Zobrist hash of the current position (see hash()). */
+    private long _hash;
+
+    /** The packed moves made so far, in order; the first _numMoves
+     *  entries are valid.  Each move fills an empty square with a spear,
+     *  so there can be no more than SIZE * SIZE of them. */
+    private final int[] _history = new int[SIZE * SIZE];
+    /** The number of moves made (and not undone). */
+    private int _numMoves;
+    /** The values of _turn and _mobility before each of the moves in
+     *  _history, for undo. */
+    private final Piece[] _savedTurns = new Piece[SIZE * SIZE];
+    /** See _savedTurns. */
+    private final byte[] _savedMobility = new byte[SIZE * SIZE];
 }
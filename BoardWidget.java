@@ -4,7 +4,6 @@ import ucb.gui2.Pad;
 
 import java.io.IOException;
 
-import java.util.Map;
 import java.util.concurrent.ArrayBlockingQueue;
 
 import java.awt.Color;
@@ -76,9 +75,11 @@ class BoardWidget extends Pad {
     @Override
     public synchronized void paintComponent(Graphics2D g) {
         drawGrid(g);
-        for (Map.Entry<Square, Piece> entry : _board.map().entrySet()) {
-            Square square = entry.getKey();
-            Piece piece = entry.getValue();
+        for (Square square : Utils.iterable(Square.iterator())) {
+            Piece piece = _board.get(square);
+            if (piece == EMPTY) {
+                continue;
+            }
             if (piece.equals(SPEAR)) {
                 g.setColor(SPEAR_COLOR);
                 g.fillRect(cx(square.col()), cy(square.row()),
@@ -0,0 +1,189 @@
+package amazons;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/** A program that builds an opening book (see OpeningBook) from games of
+ *  AI against itself.  Moves are chosen by a short search, except that
+ *  each game makes one random move early on, so that the games differ.
+ *  For each position in the first moves of a game and the move searched
+ *  there, the builder counts the games and the games won by the side
+ *  that moved.  The book gets the moves played at least a minimum
+ *  number of times, weighted by their (smoothed) winning rates.
+ *
+ *  Usage: java amazons.BookBuilder GAMES PLIES MILLIS MINGAMES FILE
+ *  plays GAMES games (in parallel) at MILLIS milliseconds a move,
+ *  records the first PLIES moves of each, and writes the moves played at
+ *  least MINGAMES times to FILE.
+ *  @author edwardsun
+ */
+public class BookBuilder {
+
+    /** Build a book as directed by ARGS (see the class comment). */
+    public static void main(String... args) {
+        if (args.length != 5) {
+            usage();
+        }
+        int games = 0, plies = 0, minGames = 0;
+        long millis = 0;
+        try {
+            games = Integer.parseInt(args[0]);
+            plies = Integer.parseInt(args[1]);
+            millis = Long.parseLong(args[2]);
+            minGames = Integer.parseInt(args[3]);
+        } catch (NumberFormatException excp) {
+            usage();
+        }
+        BookBuilder builder = new BookBuilder(plies, millis);
+        try {
+            int n = builder.build(games, minGames, args[4]);
+            System.out.printf("Wrote %d entries to %s%n", n, args[4]);
+        } catch (IOException excp) {
+            System.err.printf("Could not write book: %s%n",
+                              excp.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** Print a usage message and exit. */
+    private static void usage() {
+        System.err.println("Usage: java amazons.BookBuilder GAMES PLIES"
+                           + " MILLIS MINGAMES FILE");
+        System.exit(1);
+    }
+
+    /** A builder that records the first PLIES moves of games played at
+     *  MILLIS milliseconds a move. */
+    BookBuilder(int plies, long millis) {
+        _plies = plies;
+        _millis = millis;
+    }
+
+    /** Play GAMES games and write the moves played in them at least
+     *  MINGAMES times to the book file FILENAME.  Return the number of
+     *  entries written. */
+    int build(int games, int minGames, String fileName) throws IOException {
+        List<Game> results = IntStream.range(0, games).parallel()
+            .mapToObj(this::play).collect(Collectors.toList());
+
+        Map<Long, Map<Integer, int[]>> stats = new HashMap<>();
+        for (Game game : results) {
+            for (int i = 0; i < game._keys.length; i += 1) {
+                int[] counts = stats
+                    .computeIfAbsent(game._keys[i], k -> new HashMap<>())
+                    .computeIfAbsent(game._moves[i], m -> new int[2]);
+                counts[0] += 1;
+                if (game._winners[i]) {
+                    counts[1] += 1;
+                }
+            }
+        }
+
+        List<long[]> entries = new ArrayList<>();
+        for (Map.Entry<Long, Map<Integer, int[]>> position
+                 : stats.entrySet()) {
+            for (Map.Entry<Integer, int[]> move
+                     : position.getValue().entrySet()) {
+                int[] counts = move.getValue();
+                if (counts[0] >= minGames) {
+                    int weight = (counts[1] + 1) * WEIGHT_SCALE
+                        / (counts[0] + 2);
+                    entries.add(new long[] { position.getKey(),
+                                             move.getKey(), weight });
+                }
+            }
+        }
+        entries.sort((e1, e2) -> e1[0] != e2[0]
+                     ? Long.compare(e1[0], e2[0])
+                     : Long.compare(e2[2], e1[2]));
+
+        int n = entries.size();
+        long[] keys = new long[n];
+        int[] moves = new int[n], weights = new int[n];
+        for (int i = 0; i < n; i += 1) {
+            keys[i] = entries.get(i)[0];
+            moves[i] = (int) entries.get(i)[1];
+            weights[i] = (int) entries.get(i)[2];
+        }
+        OpeningBook.write(fileName, keys, moves, weights, n);
+        return n;
+    }
+
+    /** Play game number SEED to the end and return its record.  The random
+     *  move comes at ply SEED % DEVIATION_PLIES, and is not recorded. */
+    Game play(int seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        AI ai = new AI().setHashSize(GAME_HASH_SIZE);
+        Board board = new Board();
+        int[] buffer = new int[Board.MAX_MOVES];
+        int plies = Math.min(_plies, board.emptyCount());
+        long[] keys = new long[plies];
+        int[] moves = new int[plies];
+        Piece[] movers = new Piece[plies];
+        int recorded = 0;
+
+        while (board.winner() == null) {
+            int move;
+            if (board.numMoves() == seed % DEVIATION_PLIES) {
+                int n = board.generateMoves(board.turn(), buffer);
+                move = buffer[random.nextInt(n)];
+            } else {
+                move = ai.search(board, board.turn(), Searcher.MAX_DEPTH,
+                                 _millis, 0);
+                if (board.numMoves() < plies) {
+                    keys[recorded] = board.hash();
+                    moves[recorded] = move;
+                    movers[recorded] = board.turn();
+                    recorded += 1;
+                }
+            }
+            board.makeMove(move);
+            board.swap();
+        }
+
+        Game game = new Game(recorded);
+        for (int i = 0; i < recorded; i += 1) {
+            game._keys[i] = keys[i];
+            game._moves[i] = moves[i];
+            game._winners[i] = movers[i] == board.winner();
+        }
+        return game;
+    }
+
+    /** The record of one game: the hash of each recorded position, the
+     *  move played in it, and whether the side that played it won. */
+    private static class Game {
+        /** A record of N moves. */
+        Game(int n) {
+            _keys = new long[n];
+            _moves = new int[n];
+            _winners = new boolean[n];
+        }
+
+        /** The contents of the record. */
+        private final long[] _keys;
+        /** See _keys. */
+        private final int[] _moves;
+        /** See _keys. */
+        private final boolean[] _winners;
+    }
+
+    /** Each game's random move comes within its first DEVIATION_PLIES
+     *  moves. */
+    static final int DEVIATION_PLIES = 4;
+    /** Weights are winning rates in units of 1 / WEIGHT_SCALE. */
+    static final int WEIGHT_SCALE = 1000;
+    /** The size in megabytes of each game's transposition table. */
+    private static final int GAME_HASH_SIZE = 4;
+
+    /** The number of moves recorded from each game. */
+    private final int _plies;
+    /** The time allowed for each move, in milliseconds. */
+    private final long _millis;
+}
@@ -1,15 +1,18 @@
 package amazons;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Random;
-import java.util.Scanner;
-import java.util.regex.Pattern;
-import java.util.regex.Matcher;
-import java.util.function.Consumer;
+import java.util.concurrent.ForkJoinPool;
 
 import static amazons.Utils.*;
 import static amazons.Piece.*;
-import static amazons.Square.sq;
 
 /** The input/output and GUI controller for play of Amazons.
  *  @author edwardsun  */
@@ -29,7 +32,7 @@ final class Controller {
         _view = view;
         _playing = false;
         _logFile = logFile;
-        _input = new Scanner(System.in);
+        _input = new BufferedReader(new InputStreamReader(System.in));
         _autoPlayerTemplate = autoPlayerTemplate;
         _manualPlayerTemplate = manualPlayerTemplate;
         _nonPlayer = manualPlayerTemplate.create(EMPTY, this);
@@ -41,6 +44,7 @@ final class Controller {
         _playing = true;
         _winner = null;
         _board.init();
+        stopPlayers();
         _white = _manualPlayerTemplate.create(WHITE, this);
         _black = _autoPlayerTemplate.create(BLACK, this);
         String command;
@@ -64,12 +68,73 @@ final class Controller {
                 reportError("Error: %s%n", excp.getMessage());
             }
         }
+        stopPlayers();
 
         if (_logFile != null) {
             _logFile.close();
         }
     }
 
+    /** Play one game without reading input, starting from the current
+     *  position, with White played by a player created from my manual
+     *  player template and Black by one created from my automated player
+     *  template.  The first OPENINGPLIES moves are chosen at random (see
+     *  randomOpening) rather than by the players.  Return the winner,
+     *  which is the opponent of a player that makes an illegal move, or
+     *  null if the thread running the game is interrupted first. */
+    Piece playGame(int openingPlies) {
+        stopPlayers();
+        _white = _manualPlayerTemplate.create(WHITE, this);
+        _black = _autoPlayerTemplate.create(BLACK, this);
+        try {
+            randomOpening(openingPlies);
+            _winner = _board.winner();
+            while (_winner == null) {
+                if (Thread.currentThread().isInterrupted()) {
+                    return null;
+                }
+                Piece mover = _board.turn();
+                String command =
+                    mover == WHITE ? _white.myMove() : _black.myMove();
+                try {
+                    if (command == null
+                        || !Move.isGrammaticalMove(command)) {
+                        throw error("Bad move: %s", command);
+                    }
+                    executeCommand(command);
+                } catch (IllegalArgumentException excp) {
+                    reportError("Error: %s%n", excp.getMessage());
+                    _winner = mover.opponent();
+                }
+            }
+            return _winner;
+        } finally {
+            stopPlayers();
+        }
+    }
+
+    /** Tell both players, if any, to stop any background work (see
+     *  Player.stop). */
+    private void stopPlayers() {
+        if (_white != null) {
+            _white.stop();
+        }
+        if (_black != null) {
+            _black.stop();
+        }
+    }
+
+    /** Make PLIES legal moves (or as many as possible before the game
+     *  ends) chosen at random by randInt, so that games played after
+     *  the same setSeed start from the same position. */
+    private void randomOpening(int plies) {
+        int[] moves = new int[Board.MAX_MOVES];
+        for (int i = 0; i < plies && _board.winner() == null; i += 1) {
+            int n = _board.generateMoves(_board.turn(), moves);
+            executeCommand(Move.mv(moves[randInt(n)]).toString());
+        }
+    }
+
     /** Return the current board.  The value returned should not be
      *  modified by the caller. */
     Board board() {
@@ -91,16 +156,41 @@ final class Controller {
         _randGen.setSeed(seed);
     }
 
+    /** Return the time allowed to automated players for each move, in
+     *  milliseconds. */
+    long moveTime() {
+        return _moveTime;
+    }
+
+    /** Allow automated players MILLIS milliseconds for each move. */
+    void setMoveTime(long millis) {
+        _moveTime = millis;
+    }
+
+    /** Return the maximum number of positions that automated players
+     *  should examine for each move, or 0 if there is no limit. */
+    long nodeLimit() {
+        return _nodeLimit;
+    }
+
+    /** Limit automated players to examining NODES positions per move
+     *  (no limit if 0). */
+    void setNodeLimit(long nodes) {
+        _nodeLimit = nodes;
+    }
+
     /** Return the next line of input, or null if there is no more. First
      *  prompts for the line.  Trims the returned line (if any) of all
      *  leading and trailing whitespace. */
     String readLine() {
         System.out.print("> ");
         System.out.flush();
-        if (_input.hasNextLine()) {
-            return _input.nextLine().trim();
-        } else {
-            return null;
+        try {
+            String line = _input.readLine();
+            return line == null ? null : line.trim();
+        } catch (IOException excp) {
+            throw new IllegalStateException("could not read input: "
+                                            + excp.getMessage());
         }
     }
 
@@ -119,156 +209,325 @@ final class Controller {
         _reporter.reportMove(move);
     }
 
-    /** A Command is pair (<pattern>, <processor>), where <pattern> is a
-     *  Matcher that matches instances of a particular command, and
-     *  <processor> is a functional object whose .accept method takes a
-     *  successfully matched Matcher and performs some operation. */
-    private static class Command {
-        /** A new Command that matches PATN (a regular expression) and uses
-         *  PROCESSOR to process commands that match the pattern. */
-        Command(String patn, Consumer<Matcher> processor) {
-            _matcher = Pattern.compile(patn).matcher("");
-            _processor = processor;
-        }
-
-        /** A Matcher matching my pattern. */
-        protected final Matcher _matcher;
-        /** The function object that implements my command. */
-        protected final Consumer<Matcher> _processor;
-    }
-
-    /** String pattern. */
-    private String patt = "([a-z]\\d+)";
-
-    /** A list of Commands describing the valid textual commands to the
-     *  Amazons program and the methods to process them. */
-    private Command[] _commands = {
-        new Command("quit$", this::doQuit),
-        new Command("seed\\s+(\\d+)$", this::doSeed),
-        new Command("dump$", this::doDump),
-        new Command(patt + "-" + patt + "[(]" + patt + "[)]" + "$",
-                this::doMove),
-        new Command("new$", this::doNew),
-        new Command("undo$", this::doUndo), new Command("auto" + "\\s+"
-            + "(black|white)" + "$", this::doAuto),
-        new Command("manual" + "\\s+" + "(black|white)" + "$", this::doManual),
-            new Command("load" + "\\s+" + "(\\w+)" + "$", this::doLoad),
-    };
-
-    /** A Matcher whose Pattern matches comments. */
-    private final Matcher _comment = Pattern.compile("#.*").matcher("");
-
     /** Check that CMND is one of the valid Amazons commands and execute it, if
-     *  so, raising an IllegalArgumentException otherwise. */
+     *  so, raising an IllegalArgumentException otherwise.  A command is a
+     *  move or a keyword followed by its arguments, separated by
+     *  whitespace, and may be followed by a comment starting with '#'.
+     *  Keywords and moves may be in either case.  Moves, the most common
+     *  commands, are recognized and made without creating objects. */
     private void executeCommand(String cmnd) {
         if (_logFile != null) {
             _logFile.println(cmnd);
             _logFile.flush();
         }
 
-        _comment.reset(cmnd);
-        cmnd = _comment.replaceFirst("").trim().toLowerCase();
+        int end = cmnd.indexOf('#');
+        if (end < 0) {
+            end = cmnd.length();
+        }
+        int start = Move.skipSpace(cmnd, 0, end);
+        while (end > start && Character.isWhitespace(cmnd.charAt(end - 1))) {
+            end -= 1;
+        }
+        if (start == end) {
+            return;
+        }
 
-        if (cmnd.isEmpty()) {
+        int move = Move.parse(cmnd, start, end);
+        if (move >= 0) {
+            doMove(Move.mv(move));
             return;
         }
-        for (Command parser : _commands) {
-            parser._matcher.reset(cmnd);
-            if (parser._matcher.matches()) {
-                parser._processor.accept(parser._matcher);
-                return;
+
+        int numArgs = tokenize(cmnd, start, end);
+        switch (numArgs < 0 ? "" : _tokens[0].toLowerCase()) {
+        case "quit":
+            expectArgs(numArgs, 0, 0, cmnd, start, end);
+            _playing = false;
+            break;
+        case "seed":
+            expectArgs(numArgs, 1, 1, cmnd, start, end);
+            setSeed(number(cmnd, start, end));
+            break;
+        case "time":
+            expectArgs(numArgs, 1, 1, cmnd, start, end);
+            setMoveTime(number(cmnd, start, end));
+            break;
+        case "nodes":
+            expectArgs(numArgs, 1, 1, cmnd, start, end);
+            setNodeLimit(number(cmnd, start, end));
+            break;
+        case "scaling":
+            expectArgs(numArgs, 1, 1, cmnd, start, end);
+            doScaling(number(cmnd, start, end));
+            break;
+        case "perft":
+            expectArgs(numArgs, 1, 2, cmnd, start, end);
+            if (numArgs == 2 && !_tokens[2].equalsIgnoreCase("--parallel")) {
+                throw badCommand(cmnd, start, end);
             }
+            doPerft(number(cmnd, start, end), numArgs == 2);
+            break;
+        case "dump":
+            expectArgs(numArgs, 0, 0, cmnd, start, end);
+            doDump();
+            break;
+        case "stats":
+            expectArgs(numArgs, 0, 0, cmnd, start, end);
+            doStats();
+            break;
+        case "new":
+            expectArgs(numArgs, 0, 0, cmnd, start, end);
+            doNew();
+            break;
+        case "undo":
+            expectArgs(numArgs, 0, 0, cmnd, start, end);
+            doUndo();
+            break;
+        case "auto":
+            expectArgs(numArgs, 1, 1, cmnd, start, end);
+            doAuto(color(cmnd, start, end));
+            break;
+        case "manual":
+            expectArgs(numArgs, 1, 1, cmnd, start, end);
+            doManual(color(cmnd, start, end));
+            break;
+        case "load":
+            expectArgs(numArgs, 1, 1, cmnd, start, end);
+            doLoad(_tokens[1]);
+            break;
+        case "save":
+            expectArgs(numArgs, 1, 1, cmnd, start, end);
+            doSave(_tokens[1]);
+            break;
+        default:
+            throw badCommand(cmnd, start, end);
         }
-        throw error("Bad command: %s", cmnd);
     }
 
+    /** Split characters START to END of CMND, which start and end with
+     *  non-whitespace characters, into whitespace-separated tokens in
+     *  _tokens.  Return the number of tokens after the first (the
+     *  arguments), or -1 if there are too many. */
+    private int tokenize(String cmnd, int start, int end) {
+        int n = 0;
+        for (int k = start; k < end; n += 1) {
+            if (n == _tokens.length) {
+                return -1;
+            }
+            int tokenEnd = k;
+            while (tokenEnd < end
+                   && !Character.isWhitespace(cmnd.charAt(tokenEnd))) {
+                tokenEnd += 1;
+            }
+            _tokens[n] = cmnd.substring(k, tokenEnd);
+            k = Move.skipSpace(cmnd, tokenEnd, end);
+        }
+        return n - 1;
+    }
+
+    /** Check that a command has from MIN to MAX arguments, given that it
+     *  has NUMARGS, raising an IllegalArgumentException that reports
+     *  characters START to END of CMND as a bad command otherwise. */
+    private void expectArgs(int numArgs, int min, int max, String cmnd,
+                            int start, int end) {
+        if (numArgs < min || numArgs > max) {
+            throw badCommand(cmnd, start, end);
+        }
+    }
+
+    /** Return the value of the first argument of a command, an unsigned
+     *  decimal numeral.  Reports characters START to END of CMND as a bad
+     *  command if it is not one. */
+    private long number(String cmnd, int start, int end) {
+        String numeral = _tokens[1];
+        for (int k = 0; k < numeral.length(); k += 1) {
+            if (!Character.isDigit(numeral.charAt(k))) {
+                throw badCommand(cmnd, start, end);
+            }
+        }
+        try {
+            return Long.parseLong(numeral);
+        } catch (NumberFormatException excp) {
+            throw error("number too large");
+        }
+    }
+
+    /** Return the side (WHITE or BLACK) named by the first argument of a
+     *  command.  Reports characters START to END of CMND as a bad command
+     *  if it is neither "white" nor "black". */
+    private Piece color(String cmnd, int start, int end) {
+        if (_tokens[1].equalsIgnoreCase("white")) {
+            return WHITE;
+        } else if (_tokens[1].equalsIgnoreCase("black")) {
+            return BLACK;
+        }
+        throw badCommand(cmnd, start, end);
+    }
+
+    /** Return an exception reporting characters START to END of CMND as a
+     *  bad command. */
+    private static IllegalArgumentException badCommand(String cmnd,
+                                                       int start, int end) {
+        return error("Bad command: %s",
+                     cmnd.substring(start, end).toLowerCase());
+    }
+
+    /** The tokens of the last command other than a move (see
+     *  tokenize). */
+    private final String[] _tokens = new String[3];
+
     /** Command "new". */
-    private void doNew(Matcher unused) {
+    private void doNew() {
+        stopPlayers();
         _board.init();
         _winner = null;
     }
 
     /** Command "undo". */
-    private void doUndo(Matcher unused) {
+    private void doUndo() {
+        stopPlayers();
         _board.undo();
-        _board.swap();
     }
 
-
-    /** Command "quit". */
-    private void doQuit(Matcher unused) {
-        _playing = false;
+    /** Command "scaling DEPTH": report how the automated player's search
+     *  of the current position to depth DEPTH speeds up with more
+     *  threads. */
+    private void doScaling(long depth) {
+        if (!(_autoPlayerTemplate instanceof AI)) {
+            throw error("automated player does not search");
+        }
+        if (depth > Integer.MAX_VALUE) {
+            throw error("number too large");
+        }
+        AI ai = (AI) _autoPlayerTemplate.create(_board.turn(), this);
+        System.out.print(ai.scalingReport(_board, (int) depth));
     }
 
-    /** Command "seed N" where N is the first group of MAT. */
-    private void doSeed(Matcher mat) {
-        try {
-            setSeed(Long.parseLong(mat.group(1)));
-        } catch (NumberFormatException excp) {
+    /** Command "perft DEPTH [--parallel]": report the number of sequences
+     *  of DEPTH legal moves from the current position, and how fast they
+     *  were counted.  If PARALLEL (--parallel), the moves at the root are
+     *  divided among a ForkJoinPool's threads. */
+    private void doPerft(long depth, boolean parallel) {
+        if (depth > Integer.MAX_VALUE) {
             throw error("number too large");
         }
+        long start = System.nanoTime();
+        long nodes = parallel
+            ? _board.perft((int) depth, ForkJoinPool.commonPool())
+            : _board.perft((int) depth);
+        long elapsed = Math.max(1, System.nanoTime() - start);
+        System.out.printf("perft %d: %d nodes in %.3f s (%.0f nodes/s)%n",
+                          depth, nodes, elapsed / 1e9, nodes * 1e9 / elapsed);
     }
 
-    /** Command doMove.
-     * @param mat Matcher input
-     * */
-    private void doMove(Matcher mat) {
-        String from = mat.group(1);
-        String to = mat.group(2);
-        String spear = mat.group(3);
-        Square f = sq(from);
-        Square t = sq(to);
-        Square s = sq(spear);
-        Move m = Move.mv(f, t, s);
+    /** Command "stats": report statistics on the last search by each
+     *  automated player that searches (see SearchStats). */
+    private void doStats() {
+        boolean any = false;
+        for (Player player : new Player[] { _white, _black }) {
+            if (player instanceof AI && ((AI) player).stats() != null) {
+                System.out.printf("%s:%n%s", player.myPiece().toName(),
+                                  ((AI) player).stats());
+                any = true;
+            }
+        }
+        if (!any) {
+            throw error("no search statistics");
+        }
+    }
+
+    /** Command FROM-TO(SPEAR): make the move M, if it is legal. */
+    private void doMove(Move m) {
+        if (!_board.isLegal(m)) {
+            throw error("Illegal move: %s", m);
+        }
+        Piece mover = _board.turn();
         _board.makeMove(m);
-        if (_board.winner() != null) {
-            _winner = _board.winner();
+        _white.moveMade(m, mover);
+        _black.moveMade(m, mover);
+        _winner = _board.winner();
+        if (_winner != null) {
+            stopPlayers();
             reportNote(_winner.toName() + " wins.");
         }
         _board.swap();
     }
 
-    /** Command doAuto.
-     * @param mat Matcher input
-     * */
-    private void doAuto(Matcher mat) {
-        String color = mat.group(1);
-
-        if (color.equals("white")) {
+    /** Command "auto COLOR": let the automated player play COLOR. */
+    private void doAuto(Piece color) {
+        if (color == WHITE) {
+            _white.stop();
             _white = _autoPlayerTemplate.create(WHITE, this);
         } else {
+            _black.stop();
             _black = _autoPlayerTemplate.create(BLACK, this);
         }
 
     }
 
-    /** Command doManual.
-     * @param mat Matcher input
-     * */
-    private void doManual(Matcher mat) {
-        String color = mat.group(1);
-
-        if (color.equals("white")) {
+    /** Command "manual COLOR": let the manual player play COLOR. */
+    private void doManual(Piece color) {
+        if (color == WHITE) {
+            _white.stop();
             _white = _manualPlayerTemplate.create(WHITE, this);
         } else {
+            _black.stop();
             _black = _manualPlayerTemplate.create(BLACK, this);
         }
     }
 
-    /** Command doLoad.
-     * @param mat Matcher input
-     * */
-    private void doLoad(Matcher mat) {
-        _board.init();
-        String color = mat.group(1);
-
-        if (color.equals("whiteloss")) {
+    /** Command "load NAME": set the board to the position in the file
+     *  NAME, which is in binary form (see Board.writePosition) if NAME
+     *  ends in BINARY_SUFFIX, and otherwise in compact notation (see
+     *  Board.toNotation).  If there is no such file, "load whiteloss"
+     *  loads a built-in test position. */
+    private void doLoad(String name) {
+        stopPlayers();
+        Path file = Paths.get(name);
+        if (!Files.exists(file) && name.equalsIgnoreCase("whiteloss")) {
+            _board.init();
             UnitTest.readBoard(_board, UnitTest.WHITELOSS);
+            _winner = null;
+            return;
+        }
+        try {
+            if (name.endsWith(BINARY_SUFFIX)) {
+                _board.readPosition(Files.readAllBytes(file), 0);
+            } else {
+                _board.setNotation(new String(Files.readAllBytes(file),
+                                              StandardCharsets.US_ASCII)
+                                   .trim());
+            }
+        } catch (IOException excp) {
+            throw error("could not read %s", name);
         }
+        _winner = _board.winner();
     }
 
+    /** Command "save NAME": write the current position to the file NAME,
+     *  in the form that load would read from it. */
+    private void doSave(String name) {
+        try {
+            if (name.endsWith(BINARY_SUFFIX)) {
+                byte[] position = new byte[Board.POSITION_BYTES];
+                _board.writePosition(position, 0);
+                Files.write(Paths.get(name), position);
+            } else {
+                Files.write(Paths.get(name),
+                            (_board.toNotation() + "\n")
+                            .getBytes(StandardCharsets.US_ASCII));
+            }
+        } catch (IOException excp) {
+            throw error("could not write %s", name);
+        }
+    }
+
+    /** The suffix of the names of files holding binary positions. */
+    static final String BINARY_SUFFIX = ".bin";
+
     /** Dump the contents of the board on standard output. */
-    private void doDump(Matcher unused) {
+    private void doDump() {
         System.out.printf("===%n%s===%n", _board);
     }
 
@@ -284,6 +543,16 @@ final class Controller {
     /** The object that is displaying the current game. */
     private View _view;
 
+    /** The default time allowed for each automated move, in
+     *  milliseconds. */
+    static final long DEFAULT_MOVE_TIME = 1000;
+
+    /** Time allowed for each automated move, in milliseconds. */
+    private long _moveTime = DEFAULT_MOVE_TIME;
+
+    /** Limit on positions examined per automated move (0 for none). */
+    private long _nodeLimit;
+
     /** My pseudo-random number generator. */
     private Random _randGen = new Random();
 
@@ -291,7 +560,7 @@ final class Controller {
     private PrintStream _logFile;
 
     /** Input source. */
-    private Scanner _input;
+    private BufferedReader _input;
 
     /** The current White and Black players, each created from
      *  _autoPlayerTemplate or _manualPlayerTemplate. */
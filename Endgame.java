@@ -0,0 +1,311 @@
+package amazons;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static amazons.Piece.*;
+
+/** An endgame solver for positions in which the spears have divided the
+ *  board into regions that no longer interact.  A region is a set of
+ *  non-spear squares connected by king moves.  Amazons never leave their
+ *  regions, so once no region holds amazons of both sides, the game
+ *  reduces to a race: each side has some number of moves left in the
+ *  regions it owns, and the side to move loses iff it has no more moves
+ *  than its opponent.
+ *
+ *  The number of moves a side can make in a region is computed exactly,
+ *  by exhaustive search, for regions of at most EXACT_LIMIT empty
+ *  squares, and otherwise bounded above by the number of empty squares
+ *  (each move fills one) and below by the length of a greedily chosen
+ *  sequence of moves.  Exact results are cached by a hash of the region's
+ *  contents (see Board.regionHash), so that later moves in the same
+ *  region are found at once.
+ *  @author edwardsun
+ */
+final class Endgame {
+
+    /** Region kinds: without amazons, with amazons of only one side, or
+     *  with amazons of both sides. */
+    static final int DEAD = 0, WHITE_OWNED = 1, BLACK_OWNED = 2,
+        CONTESTED = 3;
+
+    /** The largest number of empty squares in a region whose move count
+     *  is computed exactly. */
+    static final int EXACT_LIMIT = 12;
+
+    /** Divide BOARD into regions and classify them.  If no region is
+     *  contested, also count the moves each side has left.  Return true
+     *  iff no region is contested (the position is "settled"). */
+    boolean analyze(Board board) {
+        _board.copy(board);
+        findRegions();
+        _settled = true;
+        for (int r = 0; r < _numRegions; r += 1) {
+            if (kind(r) == CONTESTED) {
+                _settled = false;
+                return false;
+            }
+        }
+        for (int s = 0; s < 2; s += 1) {
+            _lower[s] = _upper[s] = 0;
+            _bestMove[s] = 0;
+            _bestExact[s] = false;
+        }
+        for (int r = 0; r < _numRegions; r += 1) {
+            int kind = kind(r);
+            if (kind != DEAD) {
+                countMoves(_regionLo[r], _regionHi[r],
+                           kind == WHITE_OWNED ? WHITE : BLACK);
+            }
+        }
+        if (_cache.size() > CACHE_LIMIT) {
+            _cache.clear();
+        }
+        return true;
+    }
+
+    /** Return the number of regions found by the last analyze. */
+    int regions() {
+        return _numRegions;
+    }
+
+    /** Return the kind (DEAD, WHITE_OWNED, BLACK_OWNED, or CONTESTED) of
+     *  region R from the last analyze. */
+    int kind(int r) {
+        int k = DEAD;
+        if ((_board.bits(WHITE, 0) & _regionLo[r]) != 0
+            || (_board.bits(WHITE, 1) & _regionHi[r]) != 0) {
+            k |= WHITE_OWNED;
+        }
+        if ((_board.bits(BLACK, 0) & _regionLo[r]) != 0
+            || (_board.bits(BLACK, 1) & _regionHi[r]) != 0) {
+            k |= BLACK_OWNED;
+        }
+        return k;
+    }
+
+    /** Return true iff the last analyzed position was settled. */
+    boolean settled() {
+        return _settled;
+    }
+
+    /** Return a lower bound on the number of moves SIDE has left in the
+     *  last analyzed position, which must have been settled. */
+    int lowerBound(Piece side) {
+        return _lower[index(side)];
+    }
+
+    /** Return an upper bound on the number of moves SIDE has left in the
+     *  last analyzed position, which must have been settled. */
+    int upperBound(Piece side) {
+        return _upper[index(side)];
+    }
+
+    /** Return true iff lowerBound(SIDE) is the exact number of moves SIDE
+     *  has left. */
+    boolean exact(Piece side) {
+        return _lower[index(side)] == _upper[index(side)];
+    }
+
+    /** Return the winner of the last analyzed position, which must have
+     *  been settled, if TOMOVE is to move and the bounds decide it, and
+     *  otherwise null. */
+    Piece winner(Piece toMove) {
+        Piece other = toMove.opponent();
+        if (upperBound(toMove) <= lowerBound(other)) {
+            return other;
+        } else if (lowerBound(toMove) > upperBound(other)) {
+            return toMove;
+        }
+        return null;
+    }
+
+    /** Return a move (packed) for SIDE in the last analyzed position, which
+     *  must have been settled, that keeps as many moves for SIDE as
+     *  possible, or 0 if SIDE has no moves.  The move is perfect if it
+     *  lies in a region counted exactly, and otherwise the start of the
+     *  greedy sequence that gave the lower bound. */
+    int bestMove(Piece side) {
+        return _bestMove[index(side)];
+    }
+
+    /** Set the regions of _board into _numRegions, _regionLo, and
+     *  _regionHi, by repeated flood fills. */
+    private void findRegions() {
+        long freeLo = ~_board.bits(SPEAR, 0),
+            freeHi = ~_board.bits(SPEAR, 1) & Bits.HIGH_MASK;
+        _numRegions = 0;
+        while ((freeLo | freeHi) != 0) {
+            long lo, hi;
+            if (freeLo != 0) {
+                lo = Long.lowestOneBit(freeLo);
+                hi = 0;
+            } else {
+                lo = 0;
+                hi = Long.lowestOneBit(freeHi);
+            }
+            while (true) {
+                Bits.kingStep(lo, hi, freeLo, freeHi, _step);
+                long nlo = lo | _step[0], nhi = hi | _step[1];
+                if (nlo == lo && nhi == hi) {
+                    break;
+                }
+                lo = nlo;
+                hi = nhi;
+            }
+            _regionLo[_numRegions] = lo;
+            _regionHi[_numRegions] = hi;
+            _numRegions += 1;
+            freeLo &= ~lo;
+            freeHi &= ~hi;
+        }
+    }
+
+    /** Add the moves SIDE has left in the region LO, HI, which SIDE owns,
+     *  to its bounds, and update its best move. */
+    private void countMoves(long lo, long hi, Piece side) {
+        int s = index(side);
+        int empties = empties(lo, hi);
+        if (empties <= EXACT_LIMIT) {
+            int count = exactCount(lo, hi, side, 0);
+            _lower[s] += count;
+            _upper[s] += count;
+            if (count > 0 && !_bestExact[s]) {
+                _bestMove[s] = optimalMove(lo, hi, side, count);
+                _bestExact[s] = true;
+            }
+        } else {
+            _lower[s] += greedyCount(lo, hi, side);
+            _upper[s] += empties;
+            if (_bestMove[s] == 0) {
+                _bestMove[s] = _greedyMove;
+            }
+        }
+    }
+
+    /** Return the number of moves SIDE can make in the region LO, HI of
+     *  _board, which SIDE owns, using buffers from level DEPTH on. */
+    private int exactCount(long lo, long hi, Piece side, int depth) {
+        long key = _board.regionHash(lo, hi);
+        Integer cached = _cache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        int empties = empties(lo, hi);
+        int[] moves = _buffers[depth];
+        int n = _board.generateMoves(side, lo, hi, moves);
+        int best = 0;
+        for (int i = 0; i < n && best < empties; i += 1) {
+            _board.makeMove(moves[i]);
+            best = Math.max(best, 1 + exactCount(lo, hi, side, depth + 1));
+            _board.undo();
+        }
+        _cache.put(key, best);
+        return best;
+    }
+
+    /** Return a move (packed) by SIDE in the region LO, HI of _board that
+     *  leaves SIDE COUNT - 1 moves there, where COUNT > 0 is the number
+     *  SIDE has now. */
+    private int optimalMove(long lo, long hi, Piece side, int count) {
+        int[] moves = _buffers[0];
+        int n = _board.generateMoves(side, lo, hi, moves);
+        for (int i = 0; i < n; i += 1) {
+            int mv = moves[i];
+            _board.makeMove(mv);
+            int rest = exactCount(lo, hi, side, 1);
+            _board.undo();
+            if (rest == count - 1) {
+                return mv;
+            }
+        }
+        throw new IllegalStateException("no optimal endgame move");
+    }
+
+    /** Return the length of a sequence of moves by SIDE in the region
+     *  LO, HI of _board, chosen greedily, setting _greedyMove to its
+     *  first move (0 if none).  Each move is the one whose destination
+     *  has the most empty neighbors and whose spear the fewest, so that
+     *  dead ends are filled before they are cut off. */
+    private int greedyCount(long lo, long hi, Piece side) {
+        int[] moves = _buffers[0];
+        int made = 0;
+        _greedyMove = 0;
+        while (true) {
+            int n = _board.generateMoves(side, lo, hi, moves);
+            int best = 0, bestScore = Integer.MIN_VALUE;
+            for (int i = 0; i < n; i += 1) {
+                int mv = moves[i];
+                int score = emptyNeighbors(Move.toIndex(mv))
+                    - emptyNeighbors(Move.spearIndex(mv));
+                if (score > bestScore) {
+                    best = mv;
+                    bestScore = score;
+                }
+            }
+            if (best == 0) {
+                break;
+            }
+            if (made == 0) {
+                _greedyMove = best;
+            }
+            _board.makeMove(best);
+            made += 1;
+        }
+        for (int i = 0; i < made; i += 1) {
+            _board.undo();
+        }
+        return made;
+    }
+
+    /** Return the number of empty squares of _board in the set LO, HI. */
+    private int empties(long lo, long hi) {
+        return Bits.count(lo & ~occupied(0), hi & ~occupied(1));
+    }
+
+    /** Return the number of empty squares of _board next to the square
+     *  with index K. */
+    private int emptyNeighbors(int k) {
+        return Bits.count(Bits.NEIGHBORS[2 * k] & ~occupied(0),
+                          Bits.NEIGHBORS[2 * k + 1] & ~occupied(1));
+    }
+
+    /** Return word W of the set of occupied squares of _board. */
+    private long occupied(int w) {
+        return _board.bits(WHITE, w) | _board.bits(BLACK, w)
+            | _board.bits(SPEAR, w);
+    }
+
+    /** Return the index (0 or 1) of SIDE in the per-side arrays. */
+    private static int index(Piece side) {
+        return side == WHITE ? 0 : 1;
+    }
+
+    /** The number of cached results above which the cache is cleared. */
+    private static final int CACHE_LIMIT = 1 << 20;
+
+    /** My copy of the position being analyzed. */
+    private final Board _board = new Board();
+    /** The number of regions. */
+    private int _numRegions;
+    /** The low and high words of the set of squares in each region. */
+    private final long[]
+        _regionLo = new long[Board.SIZE * Board.SIZE],
+        _regionHi = new long[Board.SIZE * Board.SIZE];
+    /** True iff the position analyzed is settled. */
+    private boolean _settled;
+    /** Bounds on each side's remaining moves. */
+    private final int[] _lower = new int[2], _upper = new int[2];
+    /** Each side's best move, and whether it was found exactly. */
+    private final int[] _bestMove = new int[2];
+    /** See _bestMove. */
+    private final boolean[] _bestExact = new boolean[2];
+    /** The first move of the last greedy sequence. */
+    private int _greedyMove;
+    /** Move buffers for each level of exhaustive search. */
+    private final int[][] _buffers = new int[EXACT_LIMIT + 2][Board.MAX_MOVES];
+    /** Scratch space for Bits.kingStep. */
+    private final long[] _step = new long[2];
+    /** Exact move counts, by region hash. */
+    private final Map<Long, Integer> _cache = new HashMap<>();
+}
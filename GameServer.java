@@ -0,0 +1,509 @@
+package amazons;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+import static amazons.Piece.*;
+import static amazons.Utils.error;
+
+import ucb.util.CommandArgs;
+
+/** A server that lets many clients each play games against the AI at
+ *  once, over TCP connections to the local host.  Each connection is a
+ *  session, with its own board and settings, in which the client plays
+ *  one side and the server's AI the other.
+ *
+ *  All sessions are served by a single thread, which waits for input on
+ *  all connections at once (with a Selector), so that an idle session
+ *  costs only its board and two small buffers, about 2KB.  Searches run
+ *  on a fixed pool of engine threads, each with its own AI (and so its
+ *  own transposition table), so that however many games are in
+ *  progress, searches cannot take more than that many processors or
+ *  delay input and output.  While the AI is thinking about a session's
+ *  game, the server reads no more commands from that session.
+ *
+ *  The protocol is line-based.  The server greets each client with
+ *  "amazons N", where N is the session's number, and answers each
+ *  command with one or more lines:
+ *    new [white|black]  Start a game from the initial position with the
+ *                       client playing the given side (White if none).
+ *                       Reply "ok".
+ *    FROM-TO(SPEAR)     Make a move for the client.  Reply "ok", or
+ *                       "error MESSAGE" if the move is illegal.
+ *    time N             Allow the AI N milliseconds a move (at most
+ *                       MAX_MOVE_TIME).  Reply "ok".
+ *    board              Reply "board POSITION", in compact notation (see
+ *                       Board.toNotation).
+ *    load POSITION      Set the board to POSITION, in compact notation.
+ *                       Reply "ok".
+ *    quit               Reply "bye" and end the session.
+ *  Whenever it becomes the AI's move, the server replies (after the
+ *  answer to the command) "move FROM-TO(SPEAR)" with the AI's move, and
+ *  whenever a game ends, "winner White" or "winner Black".  Bad commands
+ *  get "error MESSAGE".
+ *
+ *  Usage: java amazons.GameServer [--port=N] [--engines=N] [--hash=MB]
+ *  [--time=MS].
+ *  @author edwardsun
+ */
+public class GameServer {
+
+    /** Run a server as directed by ARGS (see the class comment). */
+    public static void main(String... args) {
+        CommandArgs options =
+            new CommandArgs("--port={0,1} --engines={0,1} --hash={0,1} "
+                            + "--time={0,1}", args);
+        if (!options.ok()) {
+            usage();
+        }
+        GameServer server;
+        int port;
+        try {
+            server = new GameServer(
+                intOption(options, "--engines",
+                          Runtime.getRuntime().availableProcessors()),
+                intOption(options, "--hash", DEFAULT_HASH_SIZE),
+                intOption(options, "--time", (int) DEFAULT_MOVE_TIME));
+            port = server.bind(intOption(options, "--port", DEFAULT_PORT));
+        } catch (IllegalArgumentException | IOException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+            System.exit(1);
+            return;
+        }
+        System.out.printf("Serving Amazons on port %d%n", port);
+        try {
+            server.run();
+        } catch (IOException excp) {
+            System.err.printf("Server failed: %s%n", excp.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** Print a usage message and exit. */
+    private static void usage() {
+        System.err.println("Usage: java amazons.GameServer [--port=N]"
+                           + " [--engines=N] [--hash=MB] [--time=MS]");
+        System.exit(1);
+    }
+
+    /** Return the value of the positive integer option NAME in OPTIONS,
+     *  or DFLT if it is absent. */
+    private static int intOption(CommandArgs options, String name,
+                                 int dflt) {
+        if (!options.contains(name)) {
+            return dflt;
+        }
+        try {
+            int value = Integer.parseInt(options.getFirst(name));
+            if (value > 0) {
+                return value;
+            }
+        } catch (NumberFormatException excp) {
+            /* Fall through to error. */
+        }
+        throw error("bad value for %s", name);
+    }
+
+    /** A server whose AI searches on ENGINES threads, each with a
+     *  transposition table of HASHSIZE megabytes, allowing MOVETIME
+     *  milliseconds a move unless a session says otherwise. */
+    GameServer(int engines, int hashSize, long moveTime) {
+        this(engines, () -> new AI().setHashSize(hashSize), moveTime);
+    }
+
+    /** A server that searches on ENGINES threads, each with its own AI
+     *  from NEWAI, allowing MOVETIME milliseconds a move unless a session
+     *  says otherwise. */
+    GameServer(int engines, Supplier<AI> newAI, long moveTime) {
+        _moveTime = moveTime;
+        _engines = Executors.newFixedThreadPool(engines, task -> {
+            Thread thread = new Thread(task, "engine");
+            thread.setDaemon(true);
+            return thread;
+        });
+        _ai = ThreadLocal.withInitial(newAI);
+    }
+
+    /** Listen for connections to PORT (any free port if 0) on the local
+     *  host, returning the port. */
+    int bind(int port) throws IOException {
+        _selector = Selector.open();
+        _server = ServerSocketChannel.open();
+        _server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(),
+                                           port));
+        _server.configureBlocking(false);
+        _server.register(_selector, SelectionKey.OP_ACCEPT);
+        return _server.socket().getLocalPort();
+    }
+
+    /** Serve clients until shutdown is called.  Must follow bind. */
+    void run() throws IOException {
+        _running = true;
+        try {
+            while (_running) {
+                _selector.select();
+                for (Session s = _finished.poll(); s != null;
+                     s = _finished.poll()) {
+                    finishThinking(s);
+                }
+                Iterator<SelectionKey> keys =
+                    _selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    Session s = (Session) key.attachment();
+                    try {
+                        if (key.isWritable()) {
+                            flush(s);
+                        }
+                        if (key.isValid() && key.isReadable()) {
+                            read(s);
+                        }
+                    } catch (IOException excp) {
+                        close(s);
+                    }
+                }
+            }
+        } finally {
+            for (Session s : new ArrayList<>(_sessions.values())) {
+                close(s);
+            }
+            _server.close();
+            _selector.close();
+            _engines.shutdownNow();
+        }
+    }
+
+    /** Stop serving: run returns soon after, closing all sessions. */
+    void shutdown() {
+        _running = false;
+        _selector.wakeup();
+    }
+
+    /** Return the number of open sessions. */
+    int sessions() {
+        return _sessions.size();
+    }
+
+    /** Accept a pending connection, if any, and start its session. */
+    private void accept() throws IOException {
+        SocketChannel channel = _server.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        Session s = new Session(_nextId, channel, _moveTime);
+        _nextId += 1;
+        s._key = channel.register(_selector, SelectionKey.OP_READ, s);
+        _sessions.put(s._id, s);
+        send(s, "amazons " + s._id);
+    }
+
+    /** Read what is available from S's connection and execute the
+     *  complete commands in it. */
+    private void read(Session s) throws IOException {
+        if (s._channel.read(s._input) < 0) {
+            close(s);
+            return;
+        }
+        executeLines(s);
+    }
+
+    /** Execute the complete lines in S's input buffer, stopping if the AI
+     *  starts thinking for S, and then set which events S's connection
+     *  waits for. */
+    private void executeLines(Session s) {
+        ByteBuffer in = s._input;
+        byte[] bytes = in.array();
+        while (!s._thinking && s._key.isValid()) {
+            int end = 0;
+            while (end < in.position() && bytes[end] != '\n') {
+                end += 1;
+            }
+            if (end == in.position()) {
+                if (!in.hasRemaining()) {
+                    in.clear();
+                    send(s, "error line too long");
+                }
+                break;
+            }
+            int len = end > 0 && bytes[end - 1] == '\r' ? end - 1 : end;
+            String line = new String(bytes, 0, len, StandardCharsets.US_ASCII);
+            System.arraycopy(bytes, end + 1, bytes, 0,
+                             in.position() - end - 1);
+            in.position(in.position() - end - 1);
+            try {
+                execute(s, line.trim());
+            } catch (IllegalArgumentException excp) {
+                send(s, "error " + excp.getMessage());
+            }
+        }
+        setInterest(s);
+    }
+
+    /** Execute the command LINE from S. */
+    private void execute(Session s, String line) {
+        if (line.isEmpty()) {
+            return;
+        }
+        int move = Move.parse(line, 0, line.length());
+        if (move >= 0) {
+            clientMove(s, Move.mv(move));
+            return;
+        }
+        int space = line.indexOf(' ');
+        String keyword =
+            (space < 0 ? line : line.substring(0, space)).toLowerCase();
+        String arg = space < 0 ? "" : line.substring(space + 1).trim();
+        switch (keyword) {
+        case "new":
+            if (arg.isEmpty() || arg.equalsIgnoreCase("white")) {
+                s._client = WHITE;
+            } else if (arg.equalsIgnoreCase("black")) {
+                s._client = BLACK;
+            } else {
+                throw error("Bad command: %s", line);
+            }
+            s._board.init();
+            s._winner = null;
+            send(s, "ok");
+            startThinking(s);
+            break;
+        case "time":
+            try {
+                s._moveTime = Math.min(MAX_MOVE_TIME, Long.parseLong(arg));
+            } catch (NumberFormatException excp) {
+                throw error("Bad command: %s", line);
+            }
+            if (s._moveTime <= 0) {
+                throw error("Bad command: %s", line);
+            }
+            send(s, "ok");
+            break;
+        case "board":
+            send(s, "board " + s._board.toNotation());
+            break;
+        case "load":
+            s._board.setNotation(arg);
+            s._winner = s._board.winner();
+            send(s, "ok");
+            startThinking(s);
+            break;
+        case "quit":
+            send(s, "bye");
+            close(s);
+            break;
+        default:
+            throw error("Bad command: %s", line);
+        }
+    }
+
+    /** Make MOVE for S's client, if it is legal, and let the AI reply. */
+    private void clientMove(Session s, Move move) {
+        if (s._winner != null) {
+            throw error("game is over");
+        } else if (s._board.turn() != s._client) {
+            throw error("not your move");
+        } else if (!s._board.isLegal(move)) {
+            throw error("Illegal move: %s", move);
+        }
+        send(s, "ok");
+        play(s, move);
+        startThinking(s);
+    }
+
+    /** Make MOVE on S's board, announcing the end of the game, if it
+     *  ends. */
+    private void play(Session s, Move move) {
+        s._board.makeMove(move);
+        s._winner = s._board.winner();
+        if (s._winner != null) {
+            send(s, "winner " + s._winner.toName());
+        }
+        s._board.swap();
+    }
+
+    /** If it is the AI's move in S's game, start searching for it on an
+     *  engine thread. */
+    private void startThinking(Session s) {
+        if (s._winner != null || s._board.turn() == s._client) {
+            return;
+        }
+        s._thinking = true;
+        Board position = new Board(s._board);
+        Piece side = position.turn();
+        long moveTime = s._moveTime;
+        s._reply = -1;
+        _engines.execute(() -> {
+            try {
+                s._reply = _ai.get().search(position, side,
+                                            Searcher.MAX_DEPTH, moveTime, 0);
+            } finally {
+                _finished.add(s);
+                _selector.wakeup();
+            }
+        });
+    }
+
+    /** Make the move the AI found for S (or report that its search
+     *  failed, leaving the AI to move), and go on with S's commands. */
+    private void finishThinking(Session s) {
+        s._thinking = false;
+        if (!s._key.isValid()) {
+            return;
+        }
+        if (s._reply < 0) {
+            send(s, "error search failed");
+        } else {
+            Move move = Move.mv(s._reply);
+            send(s, "move " + move);
+            play(s, move);
+        }
+        executeLines(s);
+    }
+
+    /** Send LINE to S's client.  Closes S if its client has let too much
+     *  output pile up. */
+    private void send(Session s, String line) {
+        if (!s._key.isValid()) {
+            return;
+        }
+        if (s._output.remaining() < line.length() + 1) {
+            close(s);
+            return;
+        }
+        for (int k = 0; k < line.length(); k += 1) {
+            s._output.put((byte) line.charAt(k));
+        }
+        s._output.put((byte) '\n');
+        try {
+            flush(s);
+        } catch (IOException excp) {
+            close(s);
+        }
+    }
+
+    /** Write as much of S's pending output as its connection will take
+     *  now. */
+    private void flush(Session s) throws IOException {
+        s._output.flip();
+        s._channel.write(s._output);
+        s._output.compact();
+        setInterest(s);
+    }
+
+    /** Have S's connection wait for input unless the AI is thinking for
+     *  it, and for room to write if it has output pending. */
+    private void setInterest(Session s) {
+        if (s._key.isValid()) {
+            s._key.interestOps((s._thinking ? 0 : SelectionKey.OP_READ)
+                               | (s._output.position() > 0
+                                  ? SelectionKey.OP_WRITE : 0));
+        }
+    }
+
+    /** End session S. */
+    private void close(Session s) {
+        _sessions.remove(s._id);
+        s._key.cancel();
+        try {
+            s._channel.close();
+        } catch (IOException excp) {
+            /* Nothing more to do. */
+        }
+    }
+
+    /** The state of one client's games. */
+    private static class Session {
+        /** Session number ID, connected through CHANNEL, with the AI
+         *  allowed MOVETIME milliseconds a move. */
+        Session(int id, SocketChannel channel, long moveTime) {
+            _id = id;
+            _channel = channel;
+            _moveTime = moveTime;
+        }
+
+        /** My number. */
+        private final int _id;
+        /** My connection, and its registration with the selector. */
+        private final SocketChannel _channel;
+        /** See _channel. */
+        private SelectionKey _key;
+        /** Input received but not yet executed. */
+        private final ByteBuffer _input = ByteBuffer.allocate(LINE_LIMIT);
+        /** Output not yet sent. */
+        private final ByteBuffer _output = ByteBuffer.allocate(OUTPUT_LIMIT);
+        /** The current game. */
+        private final Board _board = new Board();
+        /** The side played by the client. */
+        private Piece _client = WHITE;
+        /** The winner of the current game, or null if it is not over. */
+        private Piece _winner;
+        /** The AI's time per move, in milliseconds. */
+        private long _moveTime;
+        /** True while the AI is searching for my next move. */
+        private boolean _thinking;
+        /** The move (packed) found by the last search, set by the engine
+         *  thread before it puts me in _finished, or -1 if the search
+         *  failed. */
+        private volatile int _reply;
+    }
+
+    /** The default port. */
+    static final int DEFAULT_PORT = 6161;
+    /** The default size of each engine's transposition table, in
+     *  megabytes. */
+    static final int DEFAULT_HASH_SIZE = 64;
+    /** The default time for the AI's moves, in milliseconds. */
+    static final long DEFAULT_MOVE_TIME = 1000;
+    /** The longest time a session may allow for the AI's moves, in
+     *  milliseconds. */
+    static final long MAX_MOVE_TIME = 60_000;
+    /** The longest command line, in bytes, including its end. */
+    static final int LINE_LIMIT = 256;
+    /** The most output, in bytes, that may wait for a client to read
+     *  it. */
+    static final int OUTPUT_LIMIT = 1024;
+
+    /** The default time for the AI's moves, in milliseconds. */
+    private final long _moveTime;
+    /** Runs searches. */
+    private final ExecutorService _engines;
+    /** Each engine thread's AI. */
+    private final ThreadLocal<AI> _ai;
+    /** Sessions whose searches have finished, in order of finishing. */
+    private final ConcurrentLinkedQueue<Session> _finished =
+        new ConcurrentLinkedQueue<>();
+    /** The open sessions, by number. */
+    private final Map<Integer, Session> _sessions = new HashMap<>();
+    /** The number of the next session. */
+    private int _nextId;
+    /** Waits for activity on all connections. */
+    private Selector _selector;
+    /** Accepts connections. */
+    private ServerSocketChannel _server;
+    /** False once shutdown is called. */
+    private volatile boolean _running;
+}
@@ -58,6 +58,36 @@ public class IteratorTests {
         assertEquals(477, moves.size());
     }
 
+    /** Tests perft against counts made by legalMoves, and against the
+     *  known counts from the initial position, sequentially and in
+     *  parallel. */
+    @Test
+    public void testPerft() {
+        Board b = new Board();
+        buildBoard(b, REACHABLEFROMTESTBOARD);
+        assertEquals(477, b.countMoves(Piece.WHITE));
+        long leaves = 0;
+        Iterator<Move> legalMoves = b.legalMoves(Piece.WHITE);
+        while (legalMoves.hasNext()) {
+            b.makeMove(legalMoves.next());
+            b.swap();
+            Iterator<Move> replies = b.legalMoves();
+            while (replies.hasNext()) {
+                replies.next();
+                leaves += 1;
+            }
+            b.undo();
+        }
+        assertEquals(leaves, b.perft(2));
+
+        b = new Board();
+        assertEquals(1, b.perft(0));
+        assertEquals(2176, b.perft(1));
+        assertEquals(4307152, b.perft(2));
+        assertEquals(4307152,
+                     b.perft(2, java.util.concurrent.ForkJoinPool.commonPool()));
+    }
+
 
     private void buildBoard(Board b, Piece[][] target) {
         for (int col = 0; col < Board.SIZE; col++) {
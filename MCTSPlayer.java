@@ -0,0 +1,453 @@
+package amazons;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static amazons.Piece.*;
+
+/** A Player that chooses moves by Monte Carlo tree search, using the UCT
+ *  rule to choose which line to explore next.  Each move in the tree is
+ *  split into two levels, the amazon move and then the spear throw (see
+ *  Board.makeAmazonMove), so that nodes have tens of children rather
+ *  than thousands.  Playouts make a few random moves and then score the
+ *  position with the same evaluation as AI (Searcher.evaluate).
+ *
+ *  With more than one thread, all threads grow the same tree ("tree
+ *  parallelism").  A thread descending through a node counts a visit to
+ *  it at once, before its playout is scored, so that other threads see a
+ *  provisional loss there ("virtual loss") and tend to look elsewhere.
+ *  Nodes live in arrays allocated once, so that searching allocates
+ *  nothing.
+ *  @author edwardsun
+ */
+class MCTSPlayer extends Player {
+
+    /** The default number of nodes in the tree. */
+    static final int DEFAULT_ARENA_SIZE = 1 << 20;
+    /** The smallest allowed number of nodes in the tree: enough for any
+     *  root and one level below it. */
+    static final int MIN_ARENA_SIZE = 1 << 12;
+
+    /** A new MCTSPlayer with no piece or controller (intended to produce
+     *  a template). */
+    MCTSPlayer() {
+        this(null, null);
+    }
+
+    /** A new MCTSPlayer playing PIECE under control of CONTROLLER. */
+    MCTSPlayer(Piece piece, Controller controller) {
+        super(piece, controller);
+        _threads = 1;
+        _arenaSize = DEFAULT_ARENA_SIZE;
+    }
+
+    /** A new MCTSPlayer playing PIECE under control of CONTROLLER, with
+     *  the same settings as TEMPLATE. */
+    private MCTSPlayer(Piece piece, Controller controller,
+                       MCTSPlayer template) {
+        this(piece, controller);
+        _threads = template._threads;
+        _arenaSize = template._arenaSize;
+    }
+
+    @Override
+    Player create(Piece piece, Controller controller) {
+        return new MCTSPlayer(piece, controller, this);
+    }
+
+    /** Search with THREADS threads, returning this MCTSPlayer. */
+    MCTSPlayer setThreads(int threads) {
+        _threads = threads;
+        _workers = null;
+        return this;
+    }
+
+    /** Let the tree hold at most NODES nodes (but at least
+     *  MIN_ARENA_SIZE), returning this MCTSPlayer. */
+    MCTSPlayer setArenaSize(int nodes) {
+        _arenaSize = Math.max(nodes, MIN_ARENA_SIZE);
+        _moves = null;
+        return this;
+    }
+
+    @Override
+    String myMove() {
+        Move move = Move.mv(search(board(), _controller.moveTime(),
+                                   _controller.nodeLimit()));
+        _controller.reportMove(move);
+        return move.toString();
+    }
+
+    /** Return the best move (packed) for the side to move on BOARD, which
+     *  must have a move, found by searching for at most MILLIS
+     *  milliseconds, stopping after about PLAYOUTLIMIT playouts if
+     *  PLAYOUTLIMIT > 0. */
+    int search(Board board, long millis, long playoutLimit) {
+        Worker[] workers = workers();
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(millis);
+        List<Future<?>> helpers = new ArrayList<>();
+
+        clearTree();
+        _playouts.set(0);
+        for (Worker worker : workers) {
+            worker.start(board);
+        }
+        workers[0].expand(ROOT, false);
+        for (int k = 1; k < workers.length; k += 1) {
+            Worker helper = workers[k];
+            helpers.add(HELPER_THREADS.submit(
+                () -> helper.run(deadline, playoutLimit)));
+        }
+        workers[0].run(deadline, playoutLimit);
+        for (Future<?> helper : helpers) {
+            try {
+                helper.get();
+            } catch (InterruptedException | ExecutionException excp) {
+                throw new IllegalStateException("search helper failed: "
+                                                + excp.getMessage());
+            }
+        }
+        _lastNanos = Math.max(1, System.nanoTime() - start);
+
+        int half = mostVisited(ROOT);
+        int throwNode = mostVisited(half);
+        if (throwNode >= 0) {
+            return _moves[throwNode];
+        }
+        return workers[0].bestThrow(_moves[half]);
+    }
+
+    /** Return the number of playouts in the last search. */
+    long playouts() {
+        return _playouts.get();
+    }
+
+    /** Return the number of playouts per second in the last search. */
+    long playoutsPerSecond() {
+        return playouts() * 1_000_000_000L / Math.max(1, _lastNanos);
+    }
+
+    /** Return the number of nodes in the tree built by the last
+     *  search. */
+    int treeSize() {
+        return Math.min(_next.get(), _arenaSize);
+    }
+
+    /** Reset the tree to a single, unexpanded root, allocating the node
+     *  arrays if needed. */
+    private void clearTree() {
+        if (_moves == null) {
+            _moves = new int[_arenaSize];
+            _childCounts = new int[_arenaSize];
+            _visits = new AtomicIntegerArray(_arenaSize);
+            _wins = new AtomicIntegerArray(_arenaSize);
+            _children = new AtomicIntegerArray(_arenaSize);
+        }
+        initNode(ROOT, 0);
+        _next.set(ROOT + 1);
+    }
+
+    /** Initialize node K as an unexpanded, unvisited node reached by packed
+     *  move (or amazon half move) MOVE. */
+    private void initNode(int k, int move) {
+        _moves[k] = move;
+        _childCounts[k] = 0;
+        _visits.set(k, 0);
+        _wins.set(k, 0);
+        _children.set(k, UNEXPANDED);
+    }
+
+    /** Return the most visited child of node K, or -1 if K has no
+     *  children. */
+    private int mostVisited(int k) {
+        int first = _children.get(k);
+        if (first < 0) {
+            return -1;
+        }
+        int best = first;
+        for (int c = first + 1; c < first + _childCounts[k]; c += 1) {
+            if (_visits.get(c) > _visits.get(best)) {
+                best = c;
+            }
+        }
+        return best;
+    }
+
+    /** Return true iff node K was reached by an amazon half move, so that
+     *  its children are spear throws. */
+    private boolean isHalf(int k) {
+        return k != ROOT && Move.spearIndex(_moves[k]) == Move.NO_SPEAR;
+    }
+
+    /** Return my workers, creating them if needed. */
+    private Worker[] workers() {
+        if (_workers == null) {
+            _workers = new Worker[_threads];
+            for (int k = 0; k < _threads; k += 1) {
+                _workers[k] = new Worker(k);
+            }
+        }
+        return _workers;
+    }
+
+    /** One thread's part of a search, with its own copy of the
+     *  position. */
+    private class Worker {
+
+        /** Worker number ID, whose random playouts are seeded by ID. */
+        Worker(int id) {
+            _random = new SplittableRandom(RANDOM_SEED + id);
+        }
+
+        /** Prepare to search from a copy of MODEL. */
+        void start(Board model) {
+            _board.copy(model);
+        }
+
+        /** Run playouts until time DEADLINE (as given by System.nanoTime)
+         *  or until PLAYOUTLIMIT (if > 0) playouts have been run in
+         *  all. */
+        void run(long deadline, long playoutLimit) {
+            while (System.nanoTime() - deadline < 0
+                   && (playoutLimit <= 0 || _playouts.get() < playoutLimit)) {
+                iterate();
+                _playouts.incrementAndGet();
+            }
+        }
+
+        /** Descend the tree from the root by the UCT rule, expanding the
+         *  node reached if it has been visited often enough, run a
+         *  playout from there, and credit the result to each node on the
+         *  path. */
+        void iterate() {
+            int node = ROOT, depth = 0;
+            _visits.incrementAndGet(ROOT);
+            while (true) {
+                int first = _children.get(node);
+                if (first == UNEXPANDED
+                    && _visits.get(node) >= EXPANSION_VISITS) {
+                    expand(node, isHalf(node));
+                    first = _children.get(node);
+                }
+                if (first < 0) {
+                    break;
+                }
+                node = select(node, first);
+                _visits.incrementAndGet(node);
+                depth += 1;
+                _path[depth] = node;
+                _movers[depth] = _board.turn();
+                if (isHalf(node)) {
+                    _board.makeAmazonMove(_moves[node]);
+                } else {
+                    _board.throwSpear(Move.spearIndex(_moves[node]));
+                    _board.swap();
+                }
+            }
+
+            Piece winner;
+            if (_children.get(node) == TERMINAL) {
+                winner = _board.turn().opponent();
+            } else {
+                winner = playout(isHalf(node) ? _moves[node] : 0);
+            }
+
+            for (int k = depth; k > 0; k -= 1) {
+                int reward = winner == null ? 1 : winner == _movers[k] ? 2 : 0;
+                if (reward > 0) {
+                    _wins.addAndGet(_path[k], reward);
+                }
+                if (isHalf(_path[k])) {
+                    _board.undo();
+                } else {
+                    _board.swap();
+                    _board.retractSpear();
+                }
+            }
+        }
+
+        /** Return the child of node K, whose children start at FIRST, with
+         *  the highest UCT value. */
+        private int select(int k, int first) {
+            double logN = Math.log(Math.max(1, _visits.get(k)));
+            int best = first;
+            double bestValue = Double.NEGATIVE_INFINITY;
+            for (int c = first; c < first + _childCounts[k]; c += 1) {
+                int visits = _visits.get(c);
+                if (visits == 0) {
+                    return c;
+                }
+                double value = _wins.get(c) / (2.0 * visits)
+                    + EXPLORATION * Math.sqrt(logN / visits);
+                if (value > bestValue) {
+                    best = c;
+                    bestValue = value;
+                }
+            }
+            return best;
+        }
+
+        /** Add children to node K for the moves from the current position,
+         *  which are spear throws if HALF and otherwise amazon moves, unless
+         *  another thread is already doing so or the arena is full. */
+        void expand(int k, boolean half) {
+            if (!_children.compareAndSet(k, UNEXPANDED, EXPANDING)) {
+                return;
+            }
+            int n;
+            if (half) {
+                n = _board.generateThrows(_moves[k], _buffer);
+            } else {
+                n = _board.generateAmazonMoves(_board.turn(), _buffer);
+            }
+            if (n == 0) {
+                _children.set(k, TERMINAL);
+                return;
+            }
+            if (_next.get() + n > _arenaSize) {
+                _children.set(k, FULL);
+                return;
+            }
+            int first = _next.getAndAdd(n);
+            if (first + n > _arenaSize) {
+                _children.set(k, FULL);
+                return;
+            }
+            for (int i = 0; i < n; i += 1) {
+                initNode(first + i, _buffer[i]);
+            }
+            _childCounts[k] = n;
+            _children.set(k, first);
+        }
+
+        /** Play random moves from the current position, starting by
+         *  completing HALF (if not 0), for at most PLAYOUT_MOVES moves, and
+         *  return the winner, if the game ends, or the side the evaluation
+         *  favors (null if neither), restoring the position afterward. */
+        private Piece playout(int half) {
+            int made = 0;
+            Piece winner = null;
+            if (half != 0) {
+                int n = _board.generateThrows(half, _buffer);
+                int mv = _buffer[_random.nextInt(n)];
+                _board.throwSpear(Move.spearIndex(mv));
+                _board.swap();
+            }
+            for (int i = 0; i < PLAYOUT_MOVES; i += 1) {
+                Piece side = _board.turn();
+                int n = _board.generateAmazonMoves(side, _buffer);
+                if (n == 0) {
+                    winner = side.opponent();
+                    break;
+                }
+                int mv = _buffer[_random.nextInt(n)];
+                n = _board.generateThrows(mv, _buffer);
+                _board.makeMove(_buffer[_random.nextInt(n)]);
+                _board.swap();
+                made += 1;
+            }
+            if (winner == null) {
+                int value = Searcher.evaluate(_board);
+                winner = value > 0 ? WHITE : value < 0 ? BLACK : null;
+            }
+            for (; made > 0; made -= 1) {
+                _board.undo();
+            }
+            if (half != 0) {
+                _board.swap();
+                _board.retractSpear();
+            }
+            return winner;
+        }
+
+        /** Return the completion of amazon half move HALF from the root
+         *  position that the evaluation likes best. */
+        int bestThrow(int half) {
+            int n = _board.generateThrows(half, _buffer);
+            int sense = _board.turn() == WHITE ? 1 : -1;
+            int best = _buffer[0], bestValue = Integer.MIN_VALUE;
+            for (int i = 0; i < n; i += 1) {
+                _board.makeMove(_buffer[i]);
+                int value = sense * Searcher.evaluate(_board);
+                _board.undo();
+                if (value > bestValue) {
+                    best = _buffer[i];
+                    bestValue = value;
+                }
+            }
+            return best;
+        }
+
+        /** My copy of the position being searched. */
+        private final Board _board = new Board();
+        /** Buffer for generated moves. */
+        private final int[] _buffer = new int[Board.MAX_MOVES];
+        /** The nodes on the current path from the root (_path[0] is
+         *  unused), and the sides whose moves led to them. */
+        private final int[] _path = new int[2 * Board.SIZE * Board.SIZE + 1];
+        /** See _path. */
+        private final Piece[] _movers =
+            new Piece[2 * Board.SIZE * Board.SIZE + 1];
+        /** Source of random playout moves. */
+        private final SplittableRandom _random;
+    }
+
+    /** The root node. */
+    private static final int ROOT = 0;
+    /** Values of _children for nodes without children: not yet expanded,
+     *  being expanded, a position with no moves, or left unexpanded
+     *  because the arena was full. */
+    private static final int
+        UNEXPANDED = -1, EXPANDING = -2, TERMINAL = -3, FULL = -4;
+    /** The number of visits to a node after which it is expanded. */
+    private static final int EXPANSION_VISITS = 2;
+    /** The number of random moves in a playout before it is scored. */
+    private static final int PLAYOUT_MOVES = 4;
+    /** The weight of the exploration term in the UCT rule. */
+    private static final double EXPLORATION = 0.7;
+    /** The seed for the random playouts of worker 0. */
+    private static final long RANDOM_SEED = 0x3c75L;
+
+    /** Threads on which all MCTSPlayers run their extra workers.  They are
+     *  daemons, so that they never keep the program from exiting. */
+    private static final ExecutorService HELPER_THREADS =
+        Executors.newCachedThreadPool(task -> {
+            Thread thread = new Thread(task, "tree search helper");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+    /** The number of threads I search with. */
+    private int _threads;
+    /** The maximum number of nodes in my tree. */
+    private int _arenaSize;
+    /** My workers, or null if not yet created. */
+    private Worker[] _workers;
+
+    /** The tree, as parallel arrays indexed by node: the move leading to
+     *  each node from its parent, its number of children, its number of
+     *  visits, the total reward (2 for a win, 1 for a draw) of its
+     *  playouts to the side that moved into it, and the index of its
+     *  first child (the rest following consecutively) or one of the
+     *  values UNEXPANDED, EXPANDING, TERMINAL, or FULL.  Null until
+     *  first needed. */
+    private int[] _moves, _childCounts;
+    /** See _moves. */
+    private AtomicIntegerArray _visits, _wins, _children;
+    /** The index of the next free node. */
+    private final AtomicInteger _next = new AtomicInteger();
+    /** The number of playouts in the current or last search. */
+    private final AtomicLong _playouts = new AtomicLong();
+    /** The duration of the last search, in nanoseconds. */
+    private long _lastNanos;
+}
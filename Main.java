@@ -19,11 +19,11 @@ public class Main {
     public static void main(String... args) {
 
         CommandArgs options =
-            new CommandArgs("--display --log={0,1} --={0,2}", args);
+            new CommandArgs("--display --log={0,1} --engine={0,1} "
+                            + "--hash={0,1} --threads={0,1} --split --ponder "
+                            + "--features={0,1} --book={0,1} --={0,2}", args);
         if (!options.ok()) {
-            System.err.println("Usage: java amazons.Main [--display]"
-                               + " [--log=FILE] [INPUT [OUTPUT]]");
-            System.exit(1);
+            usage();
         }
 
         List<String> files = options.get("--");
@@ -54,6 +54,36 @@ public class Main {
 
     }
 
+    /** Print a usage message and exit. */
+    private static void usage() {
+        System.err.println("Usage: java amazons.Main [--display]"
+                           + " [--log=FILE] [--engine=ab|mcts] [--hash=MB]"
+                           + " [--threads=N] [--split] [--ponder]"
+                           + " [--features=F+...] [--book=FILE]"
+                           + " [INPUT [OUTPUT]]");
+        System.exit(1);
+    }
+
+    /** Return the value of the positive integer option NAME in OPTIONS,
+     *  or DEFAULT if it is absent.  Exits with a usage message if the
+     *  value is not a positive integer. */
+    private static int intOption(CommandArgs options, String name,
+                                 int dflt) {
+        if (!options.contains(name)) {
+            return dflt;
+        }
+        try {
+            int value = Integer.parseInt(options.getFirst(name));
+            if (value > 0) {
+                return value;
+            }
+        } catch (NumberFormatException excp) {
+            /* Fall through to usage message. */
+        }
+        usage();
+        return dflt;
+    }
+
     /** Return an appropriate Controller as indicated by OPTIONS. */
     private static Controller getController(CommandArgs options) {
         Player manualPlayer;
@@ -83,6 +113,37 @@ public class Main {
             }
         }
 
-        return new Controller(view, log, reporter, manualPlayer, new AI());
+        Player autoPlayer;
+        String engine =
+            options.contains("--engine") ? options.getFirst("--engine") : "ab";
+        int threads = intOption(options, "--threads", 1);
+        if (engine.equals("ab")) {
+            AI ai = new AI()
+                .setHashSize(intOption(options, "--hash",
+                                       AI.DEFAULT_HASH_SIZE))
+                .setThreads(threads)
+                .setSplitPly(options.contains("--split"))
+                .setPonder(options.contains("--ponder"));
+            if (options.contains("--features")) {
+                ai.setFeatures(
+                    Searcher.features(options.getFirst("--features")));
+            }
+            if (options.contains("--book")) {
+                try {
+                    ai.setBook(OpeningBook.open(options.getFirst("--book")));
+                } catch (IOException excp) {
+                    throw error("Could not open opening book: %s",
+                                excp.getMessage());
+                }
+            }
+            autoPlayer = ai;
+        } else if (engine.equals("mcts")) {
+            autoPlayer = new MCTSPlayer().setThreads(threads);
+        } else {
+            usage();
+            return null;
+        }
+
+        return new Controller(view, log, reporter, manualPlayer, autoPlayer);
     }
 }
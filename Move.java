@@ -1,27 +1,25 @@
 package amazons;
 
-import java.util.regex.Pattern;
-import java.util.regex.Matcher;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import static amazons.Square.sq;
-import static amazons.Square.SQ;
 
 /** A move in the game of Amazons. As for Squares, Moves are immutable
  *  and unique: there is only one move object for each possible move
  *  (generated by the factory method  mv, the constructor being private).
  *  As for Squares, you can freely use == to compare Moves.
+ *
+ *  Moves are created on demand and interned in a table with one slot
+ *  for each move whose amazon move and spear throw are both queen moves
+ *  on an empty board (about a tenth of all triples of squares).  Any
+ *  other triple that is asked for is interned in a separate map.  Both
+ *  are safe for concurrent use, so that mv may be called from several
+ *  threads at once.
  *  @author P. N. Hilfinger
  */
 final class Move {
 
-    /** The syntax for a move, using either the forms FROM-TO(SPEAR) or
-     *  FROM TO SPEAR.  Either groups 1-3 or 4-6 in a match from this pattern
-     *  contain FROM, TO, and SPEAR (the other 3 groups are null in each
-     *  case. */
-    static final Pattern MOVE_PATTERN =
-        Pattern.compile(String.format("%s-%s\\(%s\\)|%s\\s+%s\\s+%s",
-                                      SQ, SQ, SQ, SQ, SQ, SQ));
-
     /** Return the square moved from. */
     Square from() {
         return _from;
@@ -37,25 +35,74 @@ final class Move {
         return _spear;
     }
 
+    /** Return my packed representation (see pack). */
+    int packed() {
+        return pack(_from.index(), _to.index(), _spear.index());
+    }
+
+    /** Return the packed representation of the move FROM-TO(SPEAR), where
+     *  FROM, TO, and SPEAR are Square indices.  Packed moves are plain
+     *  ints, so that searches may store and pass them around without
+     *  creating Move objects. */
+    static int pack(int from, int to, int spear) {
+        return from | (to << SQ_BITS) | (spear << (2 * SQ_BITS));
+    }
+
+    /** Return the index of the square moved from in packed MOVE. */
+    static int fromIndex(int move) {
+        return move & SQ_MASK;
+    }
+
+    /** Return the index of the square moved to in packed MOVE. */
+    static int toIndex(int move) {
+        return (move >>> SQ_BITS) & SQ_MASK;
+    }
+
+    /** Return the index of the spear's destination in packed MOVE. */
+    static int spearIndex(int move) {
+        return move >>> (2 * SQ_BITS);
+    }
+
+    /** Return the packed amazon half of packed MOVE: the same move with
+     *  its spear replaced by NO_SPEAR. */
+    static int amazonMove(int move) {
+        return move | (NO_SPEAR << (2 * SQ_BITS));
+    }
+
+    /** Return the unique Move whose packed representation is MOVE. */
+    static Move mv(int move) {
+        return mv(sq(fromIndex(move)), sq(toIndex(move)),
+                  sq(spearIndex(move)));
+    }
+
     /** Return the unique Move FROM-TO(SPEAR). */
     static Move mv(Square from, Square to, Square spear) {
-        if (MOVES[from.index()][to.index()][spear.index()] == null) {
-            MOVES[from.index()][to.index()][spear.index()] =
-                new Move(from, to, spear);
+        int line = LINE_BASE[from.index() * NUM_SQUARES + to.index()],
+            spearRank = THROW_RANK[to.index() * NUM_SQUARES + spear.index()];
+        if (line < 0 || spearRank < 0) {
+            return IRREGULAR_MOVES.computeIfAbsent(
+                pack(from.index(), to.index(), spear.index()),
+                k -> new Move(from, to, spear));
+        }
+        int k = line + spearRank;
+        Move move = MOVES.get(k);
+        if (move == null) {
+            move = new Move(from, to, spear);
+            if (!MOVES.compareAndSet(k, null, move)) {
+                move = MOVES.get(k);
+            }
         }
-        return MOVES[from.index()][to.index()][spear.index()];
+        return move;
     }
 
     /** Return the Move denoted by STR, if STR denotes a move with
      *  valid syntax in which the piece move and spear throw are proper
      *  queen moves, and null otherwise. */
     static Move mv(String str) {
-        _moveMatcher.reset(str);
-        if (_moveMatcher.matches()) {
-            int k = _moveMatcher.group(1) != null ? 1 : 4;
-            Square from = sq(_moveMatcher.group(k)),
-                to = sq(_moveMatcher.group(k + 1)),
-                spear = sq(_moveMatcher.group(k + 2));
+        int move = parse(str, 0, str.length());
+        if (move >= 0) {
+            Square from = sq(fromIndex(move)), to = sq(toIndex(move)),
+                spear = sq(spearIndex(move));
             if (from.isQueenMove(to) && to.isQueenMove(spear)) {
                 return mv(from, to, spear);
             }
@@ -66,29 +113,171 @@ final class Move {
     /** Return true iff STR has the right format for a Move, ignoring whether
      *  its piece-move and spear-throw are valid queen moves. */
     static boolean isGrammaticalMove(String str) {
-        _moveMatcher.reset(str);
-        return _moveMatcher.matches();
+        return parse(str, 0, str.length()) >= 0;
+    }
+
+    /** Return the packed move denoted by characters START to END of STR,
+     *  or -1 if they do not denote one.  A move is written either as
+     *  FROM-TO(SPEAR), with no spaces, or as FROM TO SPEAR, the three
+     *  squares separated by whitespace; each square is a column letter
+     *  (in either case) followed by a row number, as in "a1" or "J10".
+     *  The move's piece move and spear throw need not be queen moves.
+     *  Creates no objects. */
+    static int parse(CharSequence str, int start, int end) {
+        int from = parseSquare(str, start, end);
+        if (from < 0) {
+            return -1;
+        }
+        int k = start + squareLength(from);
+        boolean dashed = k < end && str.charAt(k) == '-';
+        if (dashed) {
+            k += 1;
+        } else {
+            int k0 = k;
+            k = skipSpace(str, k, end);
+            if (k == k0) {
+                return -1;
+            }
+        }
+        int to = parseSquare(str, k, end);
+        if (to < 0) {
+            return -1;
+        }
+        k += squareLength(to);
+        if (dashed) {
+            if (k >= end || str.charAt(k) != '(') {
+                return -1;
+            }
+            k += 1;
+        } else {
+            int k0 = k;
+            k = skipSpace(str, k, end);
+            if (k == k0) {
+                return -1;
+            }
+        }
+        int spear = parseSquare(str, k, end);
+        if (spear < 0) {
+            return -1;
+        }
+        k += squareLength(spear);
+        if (dashed) {
+            if (k >= end || str.charAt(k) != ')') {
+                return -1;
+            }
+            k += 1;
+        }
+        return k == end ? pack(from, to, spear) : -1;
+    }
+
+    /** Return the index of the square whose designation (as for
+     *  Square.SQ, but in either case) starts at position K of STR and ends
+     *  before END, or -1 if there is none.  Takes the longest designation
+     *  there ("a10" rather than "a1"). */
+    private static int parseSquare(CharSequence str, int k, int end) {
+        if (k + 1 >= end) {
+            return -1;
+        }
+        int col = Character.toLowerCase(str.charAt(k)) - 'a';
+        int row = str.charAt(k + 1) - '1';
+        if (col < 0 || col >= Board.SIZE || row < 0 || row > 8) {
+            return -1;
+        }
+        if (row == 0 && k + 2 < end && str.charAt(k + 2) == '0') {
+            row = 9;
+        }
+        return row * Board.SIZE + col;
+    }
+
+    /** Return the length of the designation of the square with index
+     *  INDEX. */
+    private static int squareLength(int index) {
+        return index >= (Board.SIZE - 1) * Board.SIZE ? 3 : 2;
+    }
+
+    /** Return the first position at or after K and before END of STR that
+     *  does not hold whitespace, or END if there is none. */
+    static int skipSpace(CharSequence str, int k, int end) {
+        while (k < end && Character.isWhitespace(str.charAt(k))) {
+            k += 1;
+        }
+        return k;
     }
 
     @Override
     public String toString() {
-        return _str;
+        String str = _str;
+        if (str == null) {
+            str = _str = _from + "-" + _to + "(" + _spear + ")";
+        }
+        return str;
     }
 
     /** Construct the Move FROM-TO(SPEAR). */
     private Move(Square from, Square to, Square spear) {
         _from = from; _to = to; _spear = spear;
-        _str = String.format("%s-%s(%s)", from, to, spear);
     }
 
-    /** The cache of all Moves created. */
-    private static final Move[][][] MOVES = new Move[100][100][100];
+    /** The number of bits used for each square index in a packed move. */
+    private static final int SQ_BITS = 7;
+    /** Mask selecting one square index in a packed move. */
+    private static final int SQ_MASK = (1 << SQ_BITS) - 1;
+    /** The spear index of a packed move whose spear has not been thrown
+     *  (see amazonMove). */
+    static final int NO_SPEAR = SQ_MASK;
+
+    /** The number of squares. */
+    private static final int NUM_SQUARES = Board.SIZE * Board.SIZE;
+
+    /** For squares with indices FROM and TO, LINE_BASE[FROM * NUM_SQUARES
+     *  + TO] is the position in MOVES of the first move FROM-TO(...) if
+     *  FROM-TO is a queen move, and otherwise -1. */
+    private static final int[] LINE_BASE = new int[NUM_SQUARES * NUM_SQUARES];
+    /** For squares with indices TO and SPEAR, THROW_RANK[TO * NUM_SQUARES
+     *  + SPEAR] is the number of queen moves from TO to squares with lower
+     *  indices than SPEAR if TO-SPEAR is a queen move, and otherwise -1. */
+    private static final byte[] THROW_RANK =
+        new byte[NUM_SQUARES * NUM_SQUARES];
+
+    /** The cache of Moves created whose amazon move and spear throw are
+     *  queen moves, indexed by LINE_BASE and THROW_RANK. */
+    private static final AtomicReferenceArray<Move> MOVES;
+    /** The cache of all other Moves created, by packed representation. */
+    private static final ConcurrentHashMap<Integer, Move> IRREGULAR_MOVES =
+        new ConcurrentHashMap<>();
+
+    static {
+        int[] throwCounts = new int[NUM_SQUARES];
+        for (int to = 0; to < NUM_SQUARES; to += 1) {
+            for (int spear = 0; spear < NUM_SQUARES; spear += 1) {
+                if (sq(to).isQueenMove(sq(spear))) {
+                    THROW_RANK[to * NUM_SQUARES + spear] =
+                        (byte) throwCounts[to];
+                    throwCounts[to] += 1;
+                } else {
+                    THROW_RANK[to * NUM_SQUARES + spear] = -1;
+                }
+            }
+        }
+        int size = 0;
+        for (int from = 0; from < NUM_SQUARES; from += 1) {
+            for (int to = 0; to < NUM_SQUARES; to += 1) {
+                if (sq(from).isQueenMove(sq(to))) {
+                    LINE_BASE[from * NUM_SQUARES + to] = size;
+                    size += throwCounts[to];
+                } else {
+                    LINE_BASE[from * NUM_SQUARES + to] = -1;
+                }
+            }
+        }
+        MOVES = new AtomicReferenceArray<>(size);
+    }
 
     /** The components of a Move. */
     private final Square _from, _to, _spear;
-    /** The printed form of a Move. */
+    /** The printed form of a Move, or null if it has not been needed yet.
+     *  Since Strings are immutable, threads that race to set it merely
+     *  duplicate work. */
     private String _str;
-    /**  A utility Matcher for moves, using MOVE_PATTERN. */
-    private static Matcher _moveMatcher = MOVE_PATTERN.matcher("");
 }
 
@@ -0,0 +1,108 @@
+package amazons;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+
+import static java.nio.file.StandardOpenOption.READ;
+
+/** A book of opening moves, read from a file mapped into memory.
+ *
+ *  A book file starts with the 8-byte MAGIC number and an int giving the
+ *  number of entries, followed by the entries themselves, each a long
+ *  position hash (see Board.hash), an int packed move (see Move.pack),
+ *  and an int weight, in ENTRY_SIZE bytes.  Entries are sorted by hash
+ *  and, for equal hashes, by decreasing weight, so that the first entry
+ *  for a position holds its best move.  All values are big-endian.
+ *  BookBuilder makes such files.
+ *  @author edwardsun
+ */
+final class OpeningBook {
+
+    /** The first bytes of every book file. */
+    static final long MAGIC = 0x414d5a424f4f4b31L;
+    /** The size of the header, in bytes. */
+    static final int HEADER_SIZE = 12;
+    /** The size of each entry, in bytes. */
+    static final int ENTRY_SIZE = 16;
+
+    /** A book whose header and entries are in BUFFER. */
+    private OpeningBook(MappedByteBuffer buffer, int size) {
+        _buffer = buffer;
+        _size = size;
+    }
+
+    /** Return the book in the file named FILENAME.  Throws IOException if
+     *  the file cannot be read or is not a book. */
+    static OpeningBook open(String fileName) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName),
+                                                    READ)) {
+            long length = channel.size();
+            if (length < HEADER_SIZE) {
+                throw new IOException("not an opening book: " + fileName);
+            }
+            MappedByteBuffer buffer =
+                channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            int size = buffer.getInt(8);
+            if (buffer.getLong(0) != MAGIC || size < 0
+                || length != HEADER_SIZE + (long) size * ENTRY_SIZE) {
+                throw new IOException("not an opening book: " + fileName);
+            }
+            return new OpeningBook(buffer, size);
+        }
+    }
+
+    /** Write a book file named FILENAME holding the first N entries of
+     *  KEYS, MOVES, and WEIGHTS, which must already be in order (see the
+     *  class comment). */
+    static void write(String fileName, long[] keys, int[] moves,
+                      int[] weights, int n) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(
+                 new BufferedOutputStream(new FileOutputStream(fileName)))) {
+            out.writeLong(MAGIC);
+            out.writeInt(n);
+            for (int i = 0; i < n; i += 1) {
+                out.writeLong(keys[i]);
+                out.writeInt(moves[i]);
+                out.writeInt(weights[i]);
+            }
+        }
+    }
+
+    /** Return the number of entries in this book. */
+    int size() {
+        return _size;
+    }
+
+    /** Return the best book move (packed) for the position whose hash is
+     *  KEY, or 0 if the book has none. */
+    int lookup(long key) {
+        int lo = 0, hi = _size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (key(mid) < key) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        if (lo < _size && key(lo) == key) {
+            return _buffer.getInt(HEADER_SIZE + lo * ENTRY_SIZE + 8);
+        }
+        return 0;
+    }
+
+    /** Return the hash of entry K. */
+    private long key(int k) {
+        return _buffer.getLong(HEADER_SIZE + k * ENTRY_SIZE);
+    }
+
+    /** The contents of the book file. */
+    private final MappedByteBuffer _buffer;
+    /** The number of entries. */
+    private final int _size;
+}
@@ -36,6 +36,18 @@ abstract class Player {
      *  is not null. */
     abstract String myMove();
 
+    /** Called by my Controller just after SIDE has made MOVE (whichever
+     *  side that is).  Does nothing by default. */
+    void moveMade(Move move, Piece side) {
+    }
+
+    /** Called by my Controller when it stops using me, or when the game
+     *  I am playing ends or its position is changed other than by a move,
+     *  so that I can stop any work I am doing in the background.  Does
+     *  nothing by default. */
+    void stop() {
+    }
+
     /** My Controller. */
     protected Controller _controller;
     /** The Piece I play (WHITE or BLACK). */
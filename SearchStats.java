@@ -0,0 +1,239 @@
+package amazons;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/** Statistics on one search by an AI: totals over all its Searchers of
+ *  the nodes visited, the leaves among them (nodes at the horizon or at
+ *  the end of the game), the calls to the evaluation function, and the
+ *  beta cutoffs (and those caused by the first move tried), and, for
+ *  each iteration of the main Searcher, its nodes and time.  An AI
+ *  whose statistics are turned off (see AI.setStats) creates none, and
+ *  its Searchers do not time their iterations.
+ *
+ *  Searches also report themselves to Java Flight Recorder, as one
+ *  SearchEvent per search and one IterationEvent per completed
+ *  iteration of each Searcher, when a recording enables them (e.g.,
+ *  java -XX:StartFlightRecording:filename=amazons.jfr ...).  Otherwise
+ *  they create no events, checking only whether their types are
+ *  enabled.
+ *  @author edwardsun
+ */
+final class SearchStats {
+
+    /** The flight recorder types of SearchEvent and IterationEvent.
+     *  Searches create events only while these are enabled. */
+    static final EventType
+        SEARCH_EVENTS = EventType.getEventType(SearchEvent.class),
+        ITERATION_EVENTS = EventType.getEventType(IterationEvent.class);
+
+    /** Statistics on a search by SEARCHERS (the first being the main
+     *  one), just finished, that took NANOS nanoseconds and chose MOVE
+     *  (packed). */
+    SearchStats(Searcher[] searchers, int move, long nanos) {
+        for (Searcher searcher : searchers) {
+            _nodes += searcher.nodes();
+            _leaves += searcher.leaves();
+            _evaluations += searcher.evaluations();
+            _cutoffs += searcher.cutoffs();
+            _firstMoveCutoffs += searcher.firstMoveCutoffs();
+        }
+        Searcher main = searchers[0];
+        _threads = searchers.length;
+        _move = move;
+        _nanos = nanos;
+        _depth = main.completedDepth();
+        _value = main.completedValue();
+        _iterationNodes = new long[_depth + 1];
+        _iterationNanos = new long[_depth + 1];
+        for (int d = 1; d <= _depth; d += 1) {
+            _iterationNodes[d] = main.iterationNodes(d);
+            _iterationNanos[d] = main.iterationNanos(d);
+        }
+    }
+
+    /** Return the depth of the last completed iteration of the main
+     *  Searcher, in plies (half-moves if it split moves). */
+    int depth() {
+        return _depth;
+    }
+
+    /** Return the value of the position found by the last completed
+     *  iteration of the main Searcher (positive values favor White). */
+    int value() {
+        return _value;
+    }
+
+    /** Return the total number of nodes visited. */
+    long nodes() {
+        return _nodes;
+    }
+
+    /** Return the total number of leaves visited. */
+    long leaves() {
+        return _leaves;
+    }
+
+    /** Return the total number of calls to the evaluation function. */
+    long evaluations() {
+        return _evaluations;
+    }
+
+    /** Return the total number of beta cutoffs. */
+    long cutoffs() {
+        return _cutoffs;
+    }
+
+    /** Return the fraction of beta cutoffs caused by the first move tried
+     *  at their node (1 if there were none). */
+    double firstMoveCutoffRate() {
+        return _cutoffs == 0 ? 1.0 : (double) _firstMoveCutoffs / _cutoffs;
+    }
+
+    /** Return the effective branching factor: the ratio of the nodes
+     *  visited by the main Searcher's last completed iteration to those
+     *  visited by the one before, or 0 if there were not two. */
+    double branchingFactor() {
+        if (_depth < 2 || _iterationNodes[_depth - 1] == 0) {
+            return 0;
+        }
+        return (double) _iterationNodes[_depth] / _iterationNodes[_depth - 1];
+    }
+
+    /** Return the number of nodes the main Searcher visited in its
+     *  iteration at DEPTH, which is at most depth(). */
+    long iterationNodes(int depth) {
+        return _iterationNodes[depth];
+    }
+
+    /** Return the time taken by the main Searcher's iteration at DEPTH,
+     *  which is at most depth(), in nanoseconds. */
+    long iterationNanos(int depth) {
+        return _iterationNanos[depth];
+    }
+
+    /** Return the length of the whole search, in nanoseconds. */
+    long nanos() {
+        return _nanos;
+    }
+
+    /** Return the move (packed) chosen. */
+    int move() {
+        return _move;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format(
+            "%s (value %d) at depth %d in %.3f s with %d thread(s)%n",
+            Move.mv(_move), _value, _depth, _nanos / 1e9, _threads));
+        report.append(String.format(
+            "%d nodes (%.0f/s), %d leaves, %d evaluations%n",
+            _nodes, _nodes * 1e9 / Math.max(1, _nanos), _leaves,
+            _evaluations));
+        report.append(String.format(
+            "%d cutoffs (%.3f on first move), branching factor %.2f%n",
+            _cutoffs, firstMoveCutoffRate(), branchingFactor()));
+        report.append(String.format("%8s %12s %10s%n",
+                                    "depth", "nodes", "ms"));
+        for (int d = 1; d <= _depth; d += 1) {
+            report.append(String.format("%8d %12d %10.1f%n", d,
+                                        _iterationNodes[d],
+                                        _iterationNanos[d] / 1e6));
+        }
+        return report.toString();
+    }
+
+    /** A flight recorder event for one search by an AI. */
+    @Name("amazons.Search")
+    @Label("Search")
+    @Category("Amazons")
+    @Description("A search for a move by an AI")
+    static final class SearchEvent extends Event {
+        /** Record the statistics STATS in this event. */
+        void set(SearchStats stats) {
+            move = Move.mv(stats._move).toString();
+            depth = stats._depth;
+            value = stats._value;
+            threads = stats._threads;
+            nodes = stats._nodes;
+            leaves = stats._leaves;
+            evaluations = stats._evaluations;
+            cutoffs = stats._cutoffs;
+            firstMoveCutoffRate = stats.firstMoveCutoffRate();
+            branchingFactor = stats.branchingFactor();
+        }
+
+        /** The fields of the event (see SearchStats). */
+        @Label("Move")
+        String move;
+        /** See above. */
+        @Label("Depth")
+        int depth;
+        /** See above. */
+        @Label("Value")
+        int value;
+        /** See above. */
+        @Label("Threads")
+        int threads;
+        /** See above. */
+        @Label("Nodes")
+        long nodes;
+        /** See above. */
+        @Label("Leaves")
+        long leaves;
+        /** See above. */
+        @Label("Evaluations")
+        long evaluations;
+        /** See above. */
+        @Label("Cutoffs")
+        long cutoffs;
+        /** See above. */
+        @Label("First-Move Cutoff Rate")
+        double firstMoveCutoffRate;
+        /** See above. */
+        @Label("Branching Factor")
+        double branchingFactor;
+    }
+
+    /** A flight recorder event for one completed iteration of a
+     *  Searcher. */
+    @Name("amazons.Iteration")
+    @Label("Search Iteration")
+    @Category("Amazons")
+    @Description("One iteration of iterative deepening by a Searcher")
+    static final class IterationEvent extends Event {
+        /** The fields of the event: the Searcher's number (0 for the main
+         *  one), the depth, the nodes visited, and the best move found. */
+        @Label("Searcher")
+        int searcher;
+        /** See above. */
+        @Label("Depth")
+        int depth;
+        /** See above. */
+        @Label("Nodes")
+        long nodes;
+        /** See above. */
+        @Label("Move")
+        String move;
+    }
+
+    /** The number of Searchers. */
+    private final int _threads;
+    /** The move chosen. */
+    private final int _move;
+    /** The length of the search. */
+    private final long _nanos;
+    /** The depth reached, and the value found there. */
+    private final int _depth, _value;
+    /** Totals over all Searchers. */
+    private long _nodes, _leaves, _evaluations, _cutoffs, _firstMoveCutoffs;
+    /** The nodes visited and time taken by each iteration of the main
+     *  Searcher, indexed by depth. */
+    private final long[] _iterationNodes, _iterationNanos;
+}
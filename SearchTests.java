@@ -0,0 +1,456 @@
+package amazons;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import ucb.junit.textui;
+
+/** JUnit tests for the AI's search structures.
+ *  @author edwardsun
+ */
+public class SearchTests {
+
+    /** Run the JUnit tests in this class. */
+    public static void main(String[] ignored) {
+        textui.runClasses(SearchTests.class);
+    }
+
+    /** Tests that stored entries are found again with all their fields. */
+    @Test
+    public void testTableStoreProbe() {
+        TranspositionTable table = new TranspositionTable(1);
+        assertEquals(1 << 16, table.size());
+        long key = 0x123456789abcdefL;
+        int move = Move.mv("d1-d8(c7)").packed();
+        assertEquals(0, table.probe(key));
+        table.store(key, 3, TranspositionTable.LOWER, -17, move);
+        long entry = table.probe(key);
+        assertEquals(3, TranspositionTable.depth(entry));
+        assertEquals(TranspositionTable.LOWER, TranspositionTable.bound(entry));
+        assertEquals(-17, TranspositionTable.score(entry));
+        assertEquals(move, TranspositionTable.move(entry));
+        assertEquals(1, table.hits());
+        assertEquals(1, table.misses());
+    }
+
+    /** Tests that deeper results are kept within a search, and that older
+     *  searches' results are replaced. */
+    @Test
+    public void testTableReplacement() {
+        TranspositionTable table = new TranspositionTable(1);
+        long key1 = 42, key2 = 42 + table.size();
+        table.store(key1, 4, TranspositionTable.EXACT, 100, 0);
+        table.store(key2, 2, TranspositionTable.EXACT, 200, 0);
+        assertEquals(0, table.probe(key2));
+        assertEquals(1, table.collisions());
+        assertEquals(100, TranspositionTable.score(table.probe(key1)));
+        table.newSearch();
+        table.store(key2, 2, TranspositionTable.EXACT, 200, 0);
+        assertEquals(200, TranspositionTable.score(table.probe(key2)));
+        assertEquals(0, table.probe(key1));
+    }
+
+    /** Return a Controller for tests of automated players, with no
+     *  display and all reports sent to standard output. */
+    static Controller testController() {
+        return new Controller(new NullView(), null, new TextReporter(),
+                              new TextPlayer(), new AI());
+    }
+
+    /** Tests that the AI respects its node budget and still returns a
+     *  legal move. */
+    @Test
+    public void testNodeLimit() {
+        Controller control = testController();
+        control.setNodeLimit(5000);
+        control.setMoveTime(60_000);
+        Player ai = new AI().create(Piece.WHITE, control);
+        long start = System.currentTimeMillis();
+        Move move = Move.mv(ai.myMove());
+        assertTrue(control.board().isLegal(move));
+        assertTrue(System.currentTimeMillis() - start < 30_000);
+    }
+
+    /** Tests that a search with helper threads finds a legal move, and
+     *  that the helpers do work. */
+    @Test
+    public void testThreads() {
+        AI ai = new AI().setThreads(3);
+        Board b = new Board();
+        UnitTest.readBoard(b, UnitTest.SP3);
+        int move = ai.search(b, Piece.WHITE, 2, 60_000, 0);
+        assertTrue(b.isLegal(Move.mv(move)));
+        assertTrue(ai.nodes() > 0);
+    }
+
+    /** Tests that move ordering makes most cutoffs happen on the first
+     *  move tried. */
+    @Test
+    public void testMoveOrdering() {
+        AI ai = new AI();
+        Board b = new Board();
+        b.makeMove(Move.mv("d1-d7(g7)"));
+        b.swap();
+        int move = ai.search(b, Piece.BLACK, 2, 60_000, 0);
+        assertTrue(b.isLegal(Move.mv(move)));
+        assertTrue(ai.firstMoveCutoffRate() > 0.8);
+    }
+
+    /** Tests that a search splitting moves into two plies finds a legal
+     *  move. */
+    @Test
+    public void testSplitPly() {
+        AI ai = new AI().setSplitPly(true);
+        Board b = new Board();
+        UnitTest.readBoard(b, UnitTest.SP3);
+        int move = ai.search(b, Piece.WHITE, 2, 60_000, 0);
+        assertTrue(b.isLegal(Move.mv(move)));
+        b.swap();
+        move = ai.search(b, Piece.BLACK, 2, 60_000, 0);
+        assertTrue(b.isLegal(Move.mv(move)));
+    }
+
+    /** Tests that an AI ponders on the reply it expects, and that when
+     *  that reply is made, it plays a legal move from the pondering. */
+    @Test
+    public void testPonder() {
+        Controller control = testController();
+        control.setMoveTime(200);
+        AI ai = (AI) new AI().setPonder(true).create(Piece.WHITE, control);
+        Board b = control.board();
+        Move move = Move.mv(ai.myMove());
+        b.makeMove(move);
+        ai.moveMade(move, Piece.WHITE);
+        b.swap();
+        int reply = ai.ponderMove();
+        assertTrue(reply != 0);
+        b.makeMove(reply);
+        ai.moveMade(Move.mv(reply), Piece.BLACK);
+        b.swap();
+        assertEquals(1, ai.ponderHits());
+        assertTrue(b.isLegal(Move.mv(ai.myMove())));
+        assertEquals(0, ai.ponderMisses());
+        ai.stop();
+        assertEquals(0, ai.ponderMove());
+    }
+
+    /** Tests the match statistics, and that a short match plays all its
+     *  games. */
+    @Test
+    public void testTournament() {
+        assertEquals(0, Tournament.elo(0.5), 1e-9);
+        assertEquals(0.75, Tournament.expectedScore(Tournament.elo(0.75)),
+                     1e-9);
+        Tournament match = new Tournament(new AI(), new AI());
+        match.setGames(4);
+        match.setMoveTime(5);
+        match.setNodeLimit(500);
+        match.setConcurrency(2);
+        match.setHypotheses(-1, 1);
+        int verdict = match.run(new java.io.PrintStream(
+                                    new java.io.ByteArrayOutputStream()));
+        assertEquals(0, verdict);
+        assertEquals(4, match.wins() + match.losses());
+    }
+
+    /** Tests that search statistics account for every node. */
+    @Test
+    public void testStats() {
+        Board b = new Board();
+        UnitTest.readBoard(b, UnitTest.SP3);
+        AI ai = new AI().setHashSize(1);
+        assertNull(ai.stats());
+        int move = ai.search(b, b.turn(), 2, Long.MAX_VALUE / 2, 0);
+        SearchStats stats = ai.stats();
+        assertEquals(move, stats.move());
+        assertEquals(2, stats.depth());
+        assertEquals(ai.nodes(), stats.nodes());
+        assertEquals(stats.nodes(),
+                     stats.iterationNodes(1) + stats.iterationNodes(2));
+        assertTrue(stats.leaves() > 0 && stats.leaves() < stats.nodes());
+        assertTrue(stats.evaluations() <= stats.leaves());
+        assertEquals(ai.firstMoveCutoffRate(), stats.firstMoveCutoffRate(),
+                     1e-9);
+        assertTrue(stats.branchingFactor() > 0);
+        assertTrue(stats.toString().contains(Move.mv(move).toString()));
+    }
+
+    /** Tests that an AI with statistics turned off keeps none and
+     *  allocates (next to) nothing while searching, not even per
+     *  iteration. */
+    @Test
+    public void testStatsOff() {
+        Board b = new Board();
+        UnitTest.readBoard(b, UnitTest.SP3);
+        AI ai = new AI().setHashSize(1);
+        ai.search(b, b.turn(), 1, Long.MAX_VALUE / 2, 0);
+        assertNotNull(ai.stats());
+        ai.setStats(false);
+        assertNull(ai.stats());
+        int move = ai.search(b, b.turn(), 2, Long.MAX_VALUE / 2, 0);
+        assertNull(ai.stats());
+        java.lang.management.ThreadMXBean threads =
+            java.lang.management.ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean counter =
+                (com.sun.management.ThreadMXBean) threads;
+            long id = Thread.currentThread().getId();
+            long bytes = Long.MAX_VALUE;
+            for (int i = 0; i < 3; i += 1) {
+                long bytes0 = counter.getThreadAllocatedBytes(id);
+                assertEquals(move, ai.search(b, b.turn(), 2,
+                                             Long.MAX_VALUE / 2, 0));
+                bytes = Math.min(bytes,
+                                 counter.getThreadAllocatedBytes(id) - bytes0);
+            }
+            assertTrue(bytes + " bytes allocated", bytes < 128);
+        }
+        assertNull(ai.stats());
+    }
+
+    /** Tests that principal variation search and aspiration windows do
+     *  not change the value found. */
+    @Test
+    public void testSearchFeatures() {
+        assertEquals(Searcher.PVS | Searcher.ASPIRATION,
+                     Searcher.features("pvs+aspiration"));
+        assertEquals(0, Searcher.features("none"));
+        assertEquals("pvs", Searcher.featureNames(Searcher.PVS));
+        Board b = randomPosition(40);
+        for (int split = 0; split < 2; split += 1) {
+            int value = 0;
+            for (int features = 0;
+                 features <= (Searcher.PVS | Searcher.ASPIRATION);
+                 features += 1) {
+                AI ai = new AI().setHashSize(4).setSplitPly(split == 1)
+                    .setFeatures(features);
+                int move = ai.search(b, b.turn(), 3, Long.MAX_VALUE / 2, 0);
+                assertTrue(b.isLegal(Move.mv(move)));
+                if (features == 0) {
+                    value = ai.stats().value();
+                } else {
+                    assertEquals(value, ai.stats().value());
+                }
+            }
+        }
+    }
+
+    /** Tests that the selective search features find legal moves, and
+     *  that late move reductions save nodes. */
+    @Test
+    public void testSelectiveSearch() {
+        assertEquals(Searcher.LMR | Searcher.MULTI_CUT | Searcher.PREFILTER,
+                     Searcher.features("lmr+multicut+prefilter"));
+        Board b = randomPosition(40);
+        long fullNodes = 0;
+        for (int features : new int[] {
+                Searcher.DEFAULT_FEATURES, Searcher.LMR, Searcher.MULTI_CUT,
+                Searcher.PREFILTER,
+                Searcher.DEFAULT_FEATURES | Searcher.LMR | Searcher.MULTI_CUT
+                | Searcher.PREFILTER }) {
+            for (int split = 0; split < 2; split += 1) {
+                AI ai = new AI().setHashSize(4).setSplitPly(split == 1)
+                    .setFeatures(features);
+                int move = ai.search(b, b.turn(), 3, Long.MAX_VALUE / 2, 0);
+                assertTrue(b.isLegal(Move.mv(move)));
+                if (split == 0 && features == Searcher.DEFAULT_FEATURES) {
+                    fullNodes = ai.nodes();
+                } else if (split == 0 && features == Searcher.LMR) {
+                    assertTrue(ai.nodes() < fullNodes);
+                }
+            }
+        }
+    }
+
+    /** Return the position after PLIES random moves from the initial
+     *  position, the same on every call. */
+    static Board randomPosition(int plies) {
+        Board b = new Board();
+        java.util.Random random = new java.util.Random(1);
+        int[] moves = new int[Board.MAX_MOVES];
+        for (int i = 0; i < plies; i += 1) {
+            b.makeMove(moves[random.nextInt(b.generateMoves(b.turn(),
+                                                            moves))]);
+            b.swap();
+        }
+        return b;
+    }
+
+    /** Tests a game server session: the AI answers moves, bad moves and
+     *  commands are refused, and sessions end on quit. */
+    @Test
+    public void testGameServer() throws Exception {
+        GameServer server = new GameServer(1, 1, 20);
+        int port = server.bind(0);
+        Thread serving = new Thread(() -> {
+            try {
+                server.run();
+            } catch (java.io.IOException excp) {
+                /* Reported by the assertions below. */
+            }
+        });
+        serving.start();
+        try (java.net.Socket socket = new java.net.Socket(
+                 java.net.InetAddress.getLoopbackAddress(), port)) {
+            socket.setSoTimeout(10_000);
+            java.io.BufferedReader in = new java.io.BufferedReader(
+                new java.io.InputStreamReader(socket.getInputStream()));
+            java.io.PrintStream out =
+                new java.io.PrintStream(socket.getOutputStream(), true);
+            assertEquals("amazons 0", in.readLine());
+            out.print("time 20\nd1-d7(g7)\n");
+            out.flush();
+            assertEquals("ok", in.readLine());
+            assertEquals("ok", in.readLine());
+            String reply = in.readLine();
+            assertTrue(reply.startsWith("move "));
+            Board b = new Board();
+            b.makeMove(Move.mv("d1-d7(g7)"));
+            b.swap();
+            assertTrue(b.isLegal(Move.mv(reply.substring(5))));
+            out.println("d1-d7(g7)");
+            assertTrue(in.readLine().startsWith("error"));
+            out.println("fly");
+            assertTrue(in.readLine().startsWith("error"));
+            out.println("new black");
+            assertEquals("ok", in.readLine());
+            assertTrue(in.readLine().startsWith("move "));
+            out.println("board");
+            assertTrue(in.readLine().endsWith(" b"));
+            out.println("quit");
+            assertEquals("bye", in.readLine());
+            assertNull(in.readLine());
+        } finally {
+            server.shutdown();
+            serving.join();
+        }
+        assertEquals(0, server.sessions());
+    }
+
+    /** Tests that the server reports a failed search to its client and
+     *  goes on serving the session. */
+    @Test
+    public void testGameServerFailedSearch() throws Exception {
+        GameServer server = new GameServer(1, () -> new AI() {
+            @Override
+            int search(Board board, Piece side, int depth, long millis,
+                       long nodeLimit) {
+                throw new IllegalStateException("injected search failure");
+            }
+        }, 20);
+        int port = server.bind(0);
+        Thread serving = new Thread(() -> {
+            try {
+                server.run();
+            } catch (java.io.IOException excp) {
+                /* Reported by the assertions below. */
+            }
+        });
+        serving.start();
+        try (java.net.Socket socket = new java.net.Socket(
+                 java.net.InetAddress.getLoopbackAddress(), port)) {
+            socket.setSoTimeout(10_000);
+            java.io.BufferedReader in = new java.io.BufferedReader(
+                new java.io.InputStreamReader(socket.getInputStream()));
+            java.io.PrintStream out =
+                new java.io.PrintStream(socket.getOutputStream(), true);
+            assertEquals("amazons 0", in.readLine());
+            out.println("new black");
+            assertEquals("ok", in.readLine());
+            assertEquals("error search failed", in.readLine());
+            out.println("board");
+            assertTrue(in.readLine().endsWith(" w"));
+            out.println("quit");
+            assertEquals("bye", in.readLine());
+        } finally {
+            server.shutdown();
+            serving.join();
+        }
+        assertEquals(0, server.sessions());
+    }
+
+    /** Tests that tree search, with one thread and with several, finds
+     *  legal moves and grows its tree. */
+    @Test
+    public void testMCTS() {
+        Board b = new Board();
+        UnitTest.readBoard(b, UnitTest.SP3);
+        for (int threads = 1; threads <= 3; threads += 2) {
+            MCTSPlayer player = new MCTSPlayer().setThreads(threads);
+            int move = player.search(b, 60_000, 2000);
+            assertTrue(b.isLegal(Move.mv(move)));
+            assertTrue(player.playouts() >= 2000);
+            assertTrue(player.treeSize() > 1);
+        }
+    }
+
+    /** Tests writing and reading an opening book, and that the AI plays
+     *  book moves without searching. */
+    @Test
+    public void testOpeningBook() throws java.io.IOException {
+        Board b = new Board();
+        int move = Move.mv("g1-g7(d7)").packed(),
+            worse = Move.mv("d1-d7(g7)").packed();
+        long[] keys = { b.hash() - 1, b.hash(), b.hash(), b.hash() + 1 };
+        int[] moves = { worse, move, worse, worse };
+        int[] weights = { 10, 700, 300, 10 };
+        java.io.File file = java.io.File.createTempFile("book", ".bin");
+        file.deleteOnExit();
+        OpeningBook.write(file.getPath(), keys, moves, weights, 4);
+
+        OpeningBook book = OpeningBook.open(file.getPath());
+        assertEquals(4, book.size());
+        assertEquals(move, book.lookup(b.hash()));
+        assertEquals(worse, book.lookup(b.hash() + 1));
+        assertEquals(0, book.lookup(b.hash() + 2));
+
+        Controller control = testController();
+        AI ai = (AI) new AI().setBook(book).create(Piece.WHITE, control);
+        assertEquals("g1-g7(d7)", ai.myMove());
+        assertEquals(0, ai.nodes());
+    }
+
+    /** A settled position: White has two moves left in the lower left
+     *  corner, and Black one in the upper right. */
+    static final String SETTLED =
+        "   S S S S S S S S - B\n"
+        + "   S S S S S S S S S S\n"
+        + "   S S S S S S S S S S\n"
+        + "   S S S S S S S S S S\n"
+        + "   S S S S S S S S S S\n"
+        + "   S S S S S S S S S S\n"
+        + "   S S S S S S S S S S\n"
+        + "   S S S S S S S S S S\n"
+        + "   S S S S S S S S S S\n"
+        + "   W - - S S S S S S S\n";
+
+    /** Tests region detection, move counting, and move choice in the
+     *  endgame solver. */
+    @Test
+    public void testEndgame() {
+        Endgame endgame = new Endgame();
+        assertFalse(endgame.analyze(new Board()));
+        assertEquals(1, endgame.regions());
+        assertEquals(Endgame.CONTESTED, endgame.kind(0));
+
+        Board b = new Board();
+        UnitTest.readBoard(b, SETTLED);
+        assertTrue(endgame.analyze(b));
+        assertEquals(2, endgame.regions());
+        assertEquals(2, endgame.lowerBound(Piece.WHITE));
+        assertTrue(endgame.exact(Piece.WHITE));
+        assertEquals(1, endgame.upperBound(Piece.BLACK));
+        assertEquals(Piece.WHITE, endgame.winner(Piece.WHITE));
+        assertEquals(Piece.WHITE, endgame.winner(Piece.BLACK));
+        b.makeMove(endgame.bestMove(Piece.WHITE));
+        assertTrue(endgame.analyze(b));
+        assertEquals(1, endgame.lowerBound(Piece.WHITE));
+
+        UnitTest.readBoard(b, UnitTest.BLACK_LOSE);
+        assertTrue(endgame.analyze(b));
+        assertEquals(0, endgame.upperBound(Piece.BLACK));
+        assertFalse(endgame.exact(Piece.WHITE));
+        assertTrue(endgame.lowerBound(Piece.WHITE) > 50);
+        assertEquals(Piece.WHITE, endgame.winner(Piece.BLACK));
+        assertTrue(b.isLegal(Move.mv(endgame.bestMove(Piece.WHITE))));
+    }
+}
@@ -0,0 +1,878 @@
+package amazons;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static amazons.Piece.*;
+import static amazons.Utils.error;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+/** The alpha-beta search used by AI, on one thread.  A Searcher works on
+ *  its own copy of the position being searched, playing and undoing moves
+ *  on it in place, and shares its transposition table (and a flag telling
+ *  it to stop) with any other Searchers working on the same position.
+ *
+ *  At each node, a Searcher tries the move from the transposition table
+ *  first, then the killer moves for that ply (recent moves that caused
+ *  cutoffs at the same distance from the root), and then the rest in
+ *  order of their history scores, with a bonus for moves whose spears
+ *  land next to an opponent's amazon.  The history tables last as long
+ *  as the Searcher, and so carry over from one move of a game to the
+ *  next.
+ *
+ *  A Searcher may instead split each move into two plies: an amazon
+ *  move, and then a spear throw by the same side.  Each node then has
+ *  some tens of children rather than thousands, the position after an
+ *  amazon move can be evaluated (at the horizon) or cut off before any
+ *  of its throws are generated, and depths count these half-moves.
+ *
+ *  Optional features (see the constants below) change how much of the
+ *  tree is searched.  With PVS, every move at a node after the first is
+ *  searched with a null window, which only tells whether it is better
+ *  than the best so far, and searched again with the full window only
+ *  if it is.  With ASPIRATION, each iteration starts with a narrow
+ *  window around the value found by the last iteration that ended with
+ *  the same side to move, and widens it only if the value falls
+ *  outside.  (Values swing from one ply to the next, since whichever
+ *  side moved last has gained territory.)  Neither changes the
+ *  value found at the root.
+ *
+ *  The remaining features are selective: they search some moves less
+ *  deeply than others, or not at all, and so may change the value found,
+ *  in exchange for reaching greater depths in the same time.  The
+ *  reduced searches they use are shallower by one whole move (two
+ *  plies, or four half-moves), so that they end with the same side to
+ *  move as the full ones.  With LMR (late move reductions), the moves
+ *  after the first LMR_FULL_MOVES at a node are first searched with a
+ *  null window at reduced depth, and searched fully only if that shows
+ *  them better than the best so far.  With MULTI_CUT, a node searched
+ *  with a null window is cut off at once if MULTI_CUT_CUTOFFS of its
+ *  first MULTI_CUT_MOVES moves cause cutoffs at reduced depth.  With
+ *  PREFILTER, moves whose amazon halves strictly shrink the mover's
+ *  queen territory are not searched at all (except at the root and
+ *  next to the horizon).
+ *  @author edwardsun
+ */
+final class Searcher {
+
+    /** A position magnitude indicating a win (for white if positive, black
+     *  if negative). */
+    static final int WINNING_VALUE = Integer.MAX_VALUE - 1;
+    /** A magnitude greater than a normal value. */
+    static final int INFTY = Integer.MAX_VALUE;
+
+    /** The deepest search attempted. */
+    static final int MAX_DEPTH = 60;
+
+    /** Search features, which may be combined with |: principal variation
+     *  search, aspiration windows at the root, late move reductions,
+     *  multi-cut pruning, and static pre-filtering of moves. */
+    static final int PVS = 1, ASPIRATION = 2, LMR = 4, MULTI_CUT = 8,
+        PREFILTER = 16;
+    /** The features used unless an AI asks otherwise. */
+    static final int DEFAULT_FEATURES = PVS | ASPIRATION;
+    /** The names of the features, in order of their bits. */
+    private static final String[] FEATURE_NAMES = {
+        "pvs", "aspiration", "lmr", "multicut", "prefilter"
+    };
+
+    /** Return the features named in NAMES, a list of names of features
+     *  separated by '+', or "none". */
+    static int features(String names) {
+        int features = 0;
+        if (names.equals("none")) {
+            return features;
+        }
+        for (String name : names.split("\\+")) {
+            int k = Arrays.asList(FEATURE_NAMES).indexOf(name);
+            if (k < 0) {
+                throw error("unknown search feature: %s", name);
+            }
+            features |= 1 << k;
+        }
+        return features;
+    }
+
+    /** Return the names of FEATURES, in the form read by features. */
+    static String featureNames(int features) {
+        StringBuilder names = new StringBuilder();
+        for (int k = 0; k < FEATURE_NAMES.length; k += 1) {
+            if ((features & (1 << k)) != 0) {
+                names.append(names.length() == 0 ? "" : "+")
+                    .append(FEATURE_NAMES[k]);
+            }
+        }
+        return names.length() == 0 ? "none" : names.toString();
+    }
+
+    /** A Searcher using TABLE, which stops whenever STOP is set.  Searcher
+     *  number ID (0 for the main one) of a group of COUNT sharing TABLE
+     *  visits the moves at the root in an order rotated by ID / COUNT of
+     *  the way through the list, so that helpers spread out.  Searches
+     *  split each move into two plies iff SPLITPLY, and use FEATURES.
+     *  Iterations are timed (see iterationNanos) iff TIMED. */
+    Searcher(TranspositionTable table, AtomicBoolean stop, int id, int count,
+             boolean splitPly, int features, boolean timed) {
+        _table = table;
+        _stop = stop;
+        _id = id;
+        _count = count;
+        _splitPly = splitPly;
+        _features = features;
+        _timed = timed;
+        _reduction = splitPly ? 4 : 2;
+        _selectiveDepth = splitPly ? 6 : 3;
+    }
+
+    /** Prepare to search a copy of MODEL for a move by SIDE, giving up at
+     *  time DEADLINE (as given by System.nanoTime()), after visiting
+     *  NODELIMIT nodes (if NODELIMIT > 0), or when my stop flag is set. */
+    void start(Board model, Piece side, long deadline, long nodeLimit) {
+        _board.copy(model);
+        _sense = side == WHITE ? 1 : -1;
+        _deadline = deadline;
+        _nodeLimit = nodeLimit;
+        _nodes = _leaves = _evaluations = 0;
+        _cutoffs = _firstMoveCutoffs = 0;
+        Arrays.fill(_iterationNodes, 0);
+        Arrays.fill(_iterationNanos, 0);
+        Arrays.fill(_killers, 0);
+        ageHistory();
+        _aborted = false;
+        _bestMove = 0;
+        _completedDepth = 0;
+        _completedValue = 0;
+    }
+
+    /** Search by iterative deepening, at depths FIRST through at most LAST
+     *  (in whole moves), until out of budget.  Iteration FIRST runs to
+     *  completion iff MUSTFINISH.  Return the best move (packed) found by
+     *  the last completed iteration, or 0 if there is none. */
+    int deepen(int first, int last, boolean mustFinish) {
+        last = min(last, min(MAX_DEPTH, _board.emptyCount()));
+        if (_splitPly) {
+            first *= 2;
+            last *= 2;
+        }
+        for (int depth = first; depth <= last; depth += 1) {
+            _abortable = !mustFinish || depth > first;
+            _rootDepth = depth;
+            SearchStats.IterationEvent event = null;
+            if (SearchStats.ITERATION_EVENTS.isEnabled()) {
+                event = new SearchStats.IterationEvent();
+                event.begin();
+            }
+            long start = _timed ? System.nanoTime() : 0, nodes0 = _nodes;
+            int value;
+            int lag = _splitPly ? 4 : 2;
+            if ((_features & ASPIRATION) != 0 && depth > lag
+                && _iterationNodes[depth - lag] > 0) {
+                value = aspirate(depth, _iterationValues[depth - lag]);
+            } else {
+                value = findMove(_board, depth, true, _sense, -INFTY, INFTY);
+            }
+            if (_aborted) {
+                break;
+            }
+            _bestMove = _lastFoundMove;
+            _completedDepth = depth;
+            _completedValue = _iterationValues[depth] = value;
+            _iterationNodes[depth] = _nodes - nodes0;
+            if (_timed) {
+                _iterationNanos[depth] = System.nanoTime() - start;
+            }
+            if (event != null && event.shouldCommit()) {
+                event.searcher = _id;
+                event.depth = depth;
+                event.nodes = _iterationNodes[depth];
+                event.move = Move.mv(_bestMove).toString();
+                event.commit();
+            }
+            if (Math.abs(value) == WINNING_VALUE) {
+                break;
+            }
+        }
+        return _bestMove;
+    }
+
+    /** Search the root to DEPTH with an aspiration window: first within
+     *  ASPIRATION_WINDOW of the value GUESS, and then, whenever the value
+     *  falls outside the window, again with that side of the window moved
+     *  out twice as far past the value found, until the value falls
+     *  inside.  Return the value. */
+    private int aspirate(int depth, int guess) {
+        long delta = ASPIRATION_WINDOW;
+        long low = (long) guess - delta, high = (long) guess + delta;
+        while (true) {
+            int alpha = (int) max(-INFTY, low), beta = (int) min(INFTY, high);
+            int value = findMove(_board, depth, true, _sense, alpha, beta);
+            if (_aborted) {
+                return value;
+            }
+            if (value <= alpha && alpha > -INFTY) {
+                delta *= 2;
+                low = (long) value - delta;
+            } else if (value >= beta && beta < INFTY) {
+                delta *= 2;
+                high = (long) value + delta;
+            } else {
+                return value;
+            }
+        }
+    }
+
+    /** The half-width of the first aspiration window of an iteration. */
+    private static final int ASPIRATION_WINDOW = 64;
+
+    /** Return the best move (packed) from the last completed iteration,
+     *  or 0 if none has completed. */
+    int bestMove() {
+        return _bestMove;
+    }
+
+    /** Return the depth of the last completed iteration, in plies (which
+     *  are half-moves if I split moves). */
+    int completedDepth() {
+        return _completedDepth;
+    }
+
+    /** Return the value found by the last completed iteration (positive
+     *  values favor White), or 0 if none has completed. */
+    int completedValue() {
+        return _completedValue;
+    }
+
+    /** Return the number of nodes visited since start. */
+    long nodes() {
+        return _nodes;
+    }
+
+    /** Return the number of leaves (nodes at the horizon or at the end of
+     *  the game) visited since start. */
+    long leaves() {
+        return _leaves;
+    }
+
+    /** Return the number of calls to evaluate since start. */
+    long evaluations() {
+        return _evaluations;
+    }
+
+    /** Return the number of nodes visited by the iteration at DEPTH since
+     *  start, or 0 if it did not complete. */
+    long iterationNodes(int depth) {
+        return _iterationNodes[depth];
+    }
+
+    /** Return the time taken by the iteration at DEPTH since start, in
+     *  nanoseconds, or 0 if it did not complete or I do not time
+     *  iterations. */
+    long iterationNanos(int depth) {
+        return _iterationNanos[depth];
+    }
+
+    /** Return the number of beta cutoffs since start. */
+    long cutoffs() {
+        return _cutoffs;
+    }
+
+    /** Return the number of beta cutoffs since start that were caused by
+     *  the first move tried. */
+    long firstMoveCutoffs() {
+        return _firstMoveCutoffs;
+    }
+
+    /** The packed move found by the last call to one of the ...FindMove
+     *  methods below. */
+    private int _lastFoundMove;
+
+    /** Count a node visited by the current search, and return true iff
+     *  it has used up its budget or been told to stop, and may be
+     *  abandoned. */
+    private boolean outOfBudget() {
+        _nodes += 1;
+        if (!_abortable) {
+            return false;
+        }
+        if ((_nodeLimit > 0 && _nodes > _nodeLimit)
+            || ((_nodes & CLOCK_CHECK_INTERVAL) == 0
+                && (System.nanoTime() - _deadline > 0 || _stop.get()))) {
+            _aborted = true;
+        }
+        return _aborted;
+    }
+
+    /** The clock is checked once every CLOCK_CHECK_INTERVAL + 1 nodes. */
+    private static final int CLOCK_CHECK_INTERVAL = (1 << 10) - 1;
+
+    /** Return a buffer for the moves generated at DEPTH, which is reused by
+     *  all searches at that depth. */
+    private int[] moveBuffer(int depth) {
+        if (depth >= _moveBuffers.length) {
+            _moveBuffers = Arrays.copyOf(_moveBuffers, depth + 1);
+        }
+        if (_moveBuffers[depth] == null) {
+            _moveBuffers[depth] = new int[Board.MAX_MOVES];
+        }
+        return _moveBuffers[depth];
+    }
+
+    /** Return a buffer for the sort keys of the moves at DEPTH, as for
+     *  moveBuffer. */
+    private long[] keyBuffer(int depth) {
+        if (depth >= _keyBuffers.length) {
+            _keyBuffers = Arrays.copyOf(_keyBuffers, depth + 1);
+        }
+        if (_keyBuffers[depth] == null) {
+            _keyBuffers[depth] = new long[Board.MAX_MOVES];
+        }
+        return _keyBuffers[depth];
+    }
+
+    /** Fill KEYS[0 .. N-1] with the sort keys of the N packed moves in
+     *  MOVES, which are moves by the side with number SIDE (0 for White, 1
+     *  for Black) at PLY plies from the root of a search of BOARD. TTMOVE
+     *  is the move suggested by the transposition table, or 0.  HALVES
+     *  (AMAZON_HALF, SPEAR_HALF, or both) tells which halves of the moves
+     *  are being chosen here.  A key has the move's priority in its
+     *  upper half and the move itself in its lower half. */
+    private void orderMoves(Board board, int[] moves, long[] keys, int n,
+                            int ttMove, int ply, int side, int halves) {
+        board.neighbors(side == 0 ? BLACK : WHITE, _near);
+        long nearLo = _near[0], nearHi = _near[1];
+        int killer1 = _killers[2 * ply], killer2 = _killers[2 * ply + 1];
+        for (int i = 0; i < n; i += 1) {
+            int mv = moves[i];
+            int priority;
+            if (mv == ttMove) {
+                priority = TT_MOVE_PRIORITY;
+            } else if (mv == killer1) {
+                priority = KILLER_PRIORITY;
+            } else if (mv == killer2) {
+                priority = KILLER_PRIORITY - 1;
+            } else {
+                int from = Move.fromIndex(mv), to = Move.toIndex(mv),
+                    spear = Move.spearIndex(mv);
+                priority = 0;
+                if ((halves & AMAZON_HALF) != 0) {
+                    priority += historyScore(amazonIndex(side, from, to));
+                }
+                if ((halves & SPEAR_HALF) != 0) {
+                    priority += historyScore(spearIndex(side, to, spear));
+                    long near = Bits.word(spear) == 0 ? nearLo : nearHi;
+                    if ((near & Bits.bit(spear)) != 0) {
+                        priority += SPEAR_BONUS;
+                    }
+                }
+            }
+            keys[i] = ((long) priority << 32) | mv;
+        }
+    }
+
+    /** Return the packed move to try Ith of the N whose keys are in KEYS,
+     *  moving it to KEYS[I].  The first few are found by selection, since
+     *  a cutoff often comes early, and the rest by sorting. */
+    private static int nextMove(long[] keys, int i, int n) {
+        if (i < SELECTED_MOVES) {
+            int best = i;
+            for (int j = i + 1; j < n; j += 1) {
+                if (keys[j] > keys[best]) {
+                    best = j;
+                }
+            }
+            long key = keys[best];
+            keys[best] = keys[i];
+            keys[i] = key;
+        } else if (i == SELECTED_MOVES) {
+            Arrays.sort(keys, i, n);
+            for (int j = i, k = n - 1; j < k; j += 1, k -= 1) {
+                long key = keys[j];
+                keys[j] = keys[k];
+                keys[k] = key;
+            }
+        }
+        return (int) keys[i];
+    }
+
+    /** Record that the Ith move tried, MV, caused a cutoff at DEPTH and
+     *  PLY for side SIDE, where KEYS[0 .. I-1] hold the moves tried before
+     *  it and HALVES tells which halves of the moves were being chosen,
+     *  as for orderMoves. */
+    private void recordCutoff(long[] keys, int i, int mv, int depth, int ply,
+                              int side, int halves) {
+        _cutoffs += 1;
+        if (i == 0) {
+            _firstMoveCutoffs += 1;
+        }
+        if (mv != _killers[2 * ply]) {
+            _killers[2 * ply + 1] = _killers[2 * ply];
+            _killers[2 * ply] = mv;
+        }
+        addHistory(_history, mv, side, halves, depth * depth);
+        for (int j = 0; j < i; j += 1) {
+            addHistory(_butterfly, (int) keys[j], side, halves, depth);
+        }
+    }
+
+    /** Add BONUS to the entries of TABLE for the HALVES of packed move MV
+     *  by side SIDE. */
+    private void addHistory(int[] table, int mv, int side, int halves,
+                            int bonus) {
+        int to = Move.toIndex(mv);
+        if ((halves & AMAZON_HALF) != 0) {
+            addHistory(table, amazonIndex(side, Move.fromIndex(mv), to),
+                       bonus);
+        }
+        if ((halves & SPEAR_HALF) != 0) {
+            addHistory(table, spearIndex(side, to, Move.spearIndex(mv)),
+                       bonus);
+        }
+    }
+
+    /** Return the index in the history tables of the amazon half of a
+     *  move from FROM to TO by side SIDE. */
+    private static int amazonIndex(int side, int from, int to) {
+        return ((2 * side) * SQUARES + from) * SQUARES + to;
+    }
+
+    /** Return the index in the history tables of the spear half of a move
+     *  to TO throwing to SPEAR by side SIDE. */
+    private static int spearIndex(int side, int to, int spear) {
+        return ((2 * side + 1) * SQUARES + to) * SQUARES + spear;
+    }
+
+    /** Return the history score for entry K of the history tables: how
+     *  often it has caused a cutoff, relative to how often it has been
+     *  tried without causing one. */
+    private int historyScore(int k) {
+        return (int) min(HISTORY_SCORE_LIMIT,
+                         (long) _history[k] * HISTORY_SCALE
+                         / (_butterfly[k] + 1));
+    }
+
+    /** Add BONUS to entry K of TABLE, aging all entries if it grows too
+     *  large. */
+    private void addHistory(int[] table, int k, int bonus) {
+        table[k] += bonus;
+        if (table[k] > HISTORY_LIMIT) {
+            ageHistory();
+        }
+    }
+
+    /** Halve all entries of the history tables, so that recent results
+     *  count for more than old ones. */
+    private void ageHistory() {
+        for (int k = 0; k < _history.length; k += 1) {
+            _history[k] >>= 1;
+            _butterfly[k] >>= 1;
+        }
+    }
+
+    /** Values for the HALVES arguments of orderMoves and recordCutoff. */
+    private static final int
+        AMAZON_HALF = 1, SPEAR_HALF = 2, BOTH_HALVES = 3;
+
+    /** Move priorities: the move from the transposition table comes first,
+     *  then the killers, then the others (whose priorities are always less
+     *  than KILLER_PRIORITY - 1). */
+    private static final int
+        TT_MOVE_PRIORITY = Integer.MAX_VALUE,
+        KILLER_PRIORITY = TT_MOVE_PRIORITY - 1;
+    /** The extra priority of a move whose spear lands next to an opposing
+     *  amazon. */
+    private static final int SPEAR_BONUS = 1 << 8;
+    /** The multiplier applied to history scores. */
+    private static final int HISTORY_SCALE = 1 << 10;
+    /** The largest value returned by historyScore. */
+    private static final int HISTORY_SCORE_LIMIT = 1 << 28;
+    /** The largest value of a history table entry before aging. */
+    private static final int HISTORY_LIMIT = 1 << 20;
+    /** The number of moves at a node searched fully before late move
+     *  reductions begin. */
+    private static final int LMR_FULL_MOVES = 4;
+    /** The number of moves tried by multi-cut pruning at a node, and the
+     *  number of cutoffs among them that prune it. */
+    private static final int MULTI_CUT_MOVES = 4, MULTI_CUT_CUTOFFS = 2;
+    /** The number of moves at a node that are chosen by selection before
+     *  sorting the rest. */
+    private static final int SELECTED_MOVES = 4;
+    /** The number of squares. */
+    private static final int SQUARES = Board.SIZE * Board.SIZE;
+
+    /** Find a move from position BOARD and return its value, recording
+     *  the move found in _lastFoundMove iff SAVEMOVE. The move
+     *  should have maximal value or have value > BETA if SENSE==1,
+     *  and minimal value or value < ALPHA if SENSE==-1. Searches up to
+     *  DEPTH levels.  Searching at level 0 simply returns a static estimate
+     *  of the board value and does not set _lastMoveFound.  If the search
+     *  runs out of budget, sets _aborted and returns a meaningless
+     *  value. */
+    private int findMove(Board board, int depth, boolean saveMove, int sense,
+                         int alpha, int beta) {
+        if (outOfBudget()) {
+            return 0;
+        }
+        if (depth == 0 || board.winner() != null) {
+            _leaves += 1;
+            return staticScore(board);
+        }
+
+        long key = board.hash();
+        long entry = _table.probe(key);
+        if (entry != 0 && !saveMove
+            && TranspositionTable.depth(entry) >= depth) {
+            int score = TranspositionTable.score(entry);
+            switch (TranspositionTable.bound(entry)) {
+            case TranspositionTable.EXACT:
+                return score;
+            case TranspositionTable.LOWER:
+                alpha = max(alpha, score);
+                break;
+            default:
+                beta = min(beta, score);
+                break;
+            }
+            if (beta <= alpha) {
+                return score;
+            }
+        }
+
+        int alpha0 = alpha, beta0 = beta;
+        int side = sense == 1 ? 0 : 1, ply = _rootDepth - depth;
+        int[] moves = moveBuffer(depth);
+        long[] keys = keyBuffer(depth);
+        int ttMove = entry == 0 ? 0 : TranspositionTable.move(entry);
+        int n;
+        if (_splitPly) {
+            n = board.generateAmazonMoves(sense == 1 ? WHITE : BLACK, moves);
+        } else {
+            n = board.generateMoves(sense == 1 ? WHITE : BLACK, moves);
+        }
+        if ((_features & PREFILTER) != 0 && !saveMove && depth > 1) {
+            n = prefilter(board, moves, n, sense,
+                          ttMove == 0 ? 0 : Move.amazonMove(ttMove));
+        }
+        boolean ordered = !saveMove || _id == 0;
+        if (ordered) {
+            orderMoves(board, moves, keys, n,
+                       _splitPly && ttMove != 0
+                       ? Move.amazonMove(ttMove) : ttMove,
+                       ply, side, _splitPly ? AMAZON_HALF : BOTH_HALVES);
+        } else {
+            int first = (int) ((long) n * _id / _count);
+            for (int i = 0; i < n; i += 1) {
+                keys[i] = moves[(first + i) % n];
+            }
+        }
+
+        boolean selective = depth >= _selectiveDepth;
+        if (selective && (_features & MULTI_CUT) != 0 && !saveMove
+            && beta - alpha == 1) {
+            int cuts = 0;
+            for (int i = 0; i < min(n, MULTI_CUT_MOVES); i += 1) {
+                int score = searchMove(board, nextMove(keys, i, n),
+                                       depth - _reduction, sense,
+                                       alpha, beta, ttMove);
+                if (_aborted) {
+                    return 0;
+                }
+                if (sense == 1 ? score >= beta : score <= alpha) {
+                    cuts += 1;
+                    if (cuts == MULTI_CUT_CUTOFFS) {
+                        return sense == 1 ? beta : alpha;
+                    }
+                }
+            }
+        }
+
+        boolean pvs = (_features & PVS) != 0 && depth > 1,
+            reduce = selective && (_features & LMR) != 0;
+        int bestSoFar = sense == 1 ? -INFTY : INFTY, bestMove = 0;
+        for (int i = 0; i < n; i += 1) {
+            int mv = ordered ? nextMove(keys, i, n) : (int) keys[i];
+            int score = 0;
+            boolean full = i == 0 || !pvs && !reduce;
+            if (!full) {
+                int nullAlpha = sense == 1 ? alpha : beta - 1,
+                    nullBeta = sense == 1 ? alpha + 1 : beta;
+                boolean again = true;
+                if (reduce && i >= LMR_FULL_MOVES) {
+                    score = searchMove(board, mv, depth - _reduction, sense,
+                                       nullAlpha, nullBeta, ttMove);
+                    again = sense == 1 ? score > alpha : score < beta;
+                }
+                if (again && pvs && !_aborted) {
+                    score = searchMove(board, mv, depth, sense,
+                                       nullAlpha, nullBeta, ttMove);
+                    again = score > alpha && score < beta;
+                }
+                full = again && !_aborted;
+            }
+            if (full) {
+                score = searchMove(board, mv, depth, sense, alpha, beta,
+                                   ttMove);
+            }
+            int searched = _searchedMove;
+            if (_aborted) {
+                return bestSoFar;
+            }
+            if (sense == 1 ? score > bestSoFar : score < bestSoFar) {
+                if (saveMove) {
+                    _lastFoundMove = searched;
+                }
+                bestSoFar = score;
+                bestMove = searched;
+                if (sense == 1) {
+                    alpha = max(alpha, score);
+                } else {
+                    beta = min(beta, score);
+                }
+                if (beta <= alpha) {
+                    recordCutoff(keys, i, mv, depth, ply, side,
+                                 _splitPly ? AMAZON_HALF : BOTH_HALVES);
+                    break;
+                }
+            }
+        }
+
+        int bound;
+        if (bestSoFar <= alpha0) {
+            bound = TranspositionTable.UPPER;
+        } else if (bestSoFar >= beta0) {
+            bound = TranspositionTable.LOWER;
+        } else {
+            bound = TranspositionTable.EXACT;
+        }
+        _table.store(key, depth, bound, bestSoFar, bestMove);
+
+        return bestSoFar;
+    }
+
+    /** Make the packed move MV (or, if I split moves, the amazon move MV)
+     *  at a node of findMove at DEPTH, on BOARD, and return its value as
+     *  searched to DEPTH - 1 further plies with window ALPHA, BETA, and
+     *  then retract it.  Sets _searchedMove to the whole move searched.
+     *  SENSE and TTMOVE are as at the node. */
+    private int searchMove(Board board, int mv, int depth, int sense,
+                           int alpha, int beta, int ttMove) {
+        int score;
+        if (!_splitPly) {
+            board.makeMove(mv);
+            board.swap();
+            score = findMove(board, depth - 1, false, -sense, alpha, beta);
+            board.undo();
+            _searchedMove = mv;
+        } else if (depth == 1) {
+            board.makeAmazonMove(mv);
+            _nodes += 1;
+            _leaves += 1;
+            score = staticScore(board);
+            board.undo();
+            _searchedMove = mv;
+        } else {
+            board.makeAmazonMove(mv);
+            score = throwFindMove(board, mv, depth - 1, sense, alpha, beta,
+                                  Move.amazonMove(ttMove) == mv ? ttMove : 0);
+            board.undo();
+            _searchedMove = _bestThrow;
+        }
+        return score;
+    }
+
+    /** The move made by the last call to searchMove. */
+    private int _searchedMove;
+
+    /** Remove from MOVES[0 .. N-1], packed moves (or amazon moves) for the
+     *  side with SENSE on BOARD, those whose amazon halves leave that side
+     *  with strictly less queen territory (see Board.queenTerritory) than
+     *  it has now, except the amazon move KEEP, and return the number of
+     *  moves left.  Leaves all the moves if it would remove them all.
+     *  Each move's territory is computed once for all the moves with the
+     *  same amazon half that follow it. */
+    private int prefilter(Board board, int[] moves, int n, int sense,
+                          int keep) {
+        int now = sense * board.queenTerritory();
+        int kept = 0, half = -1;
+        boolean keepHalf = true;
+        for (int i = 0; i < n; i += 1) {
+            int mv = moves[i];
+            if (Move.amazonMove(mv) != half) {
+                half = Move.amazonMove(mv);
+                board.makeAmazonMove(half);
+                keepHalf = half == keep
+                    || sense * board.queenTerritory() >= now;
+                board.undo();
+            }
+            if (keepHalf) {
+                moves[kept] = mv;
+                kept += 1;
+            }
+        }
+        return kept == 0 ? n : kept;
+    }
+
+    /** Find the best spear throw to complete the amazon half move HALF,
+     *  which has just been made on BOARD, and return the value of the
+     *  resulting position searched to DEPTH further plies, setting
+     *  _bestThrow to the completed move.  SENSE, ALPHA, and BETA are as
+     *  for findMove, and TTMOVE is a completion of HALF suggested by the
+     *  transposition table, or 0. */
+    private int throwFindMove(Board board, int half, int depth, int sense,
+                              int alpha, int beta, int ttMove) {
+        if (outOfBudget()) {
+            return 0;
+        }
+        int side = sense == 1 ? 0 : 1, ply = _rootDepth - depth;
+        int[] moves = moveBuffer(depth);
+        long[] keys = keyBuffer(depth);
+        int n = board.generateThrows(half, moves);
+        orderMoves(board, moves, keys, n, ttMove, ply, side, SPEAR_HALF);
+
+        boolean pvs = (_features & PVS) != 0 && depth > 1;
+        int bestSoFar = sense == 1 ? -INFTY : INFTY, bestMove = 0;
+        for (int i = 0; i < n; i += 1) {
+            int mv = nextMove(keys, i, n);
+            board.throwSpear(Move.spearIndex(mv));
+            board.swap();
+            int score;
+            if (pvs && i > 0) {
+                score = findMove(board, depth - 1, false, -sense,
+                                 sense == 1 ? alpha : beta - 1,
+                                 sense == 1 ? alpha + 1 : beta);
+                if (score > alpha && score < beta && !_aborted) {
+                    score = findMove(board, depth - 1, false, -sense,
+                                     alpha, beta);
+                }
+            } else {
+                score = findMove(board, depth - 1, false, -sense,
+                                 alpha, beta);
+            }
+            board.swap();
+            board.retractSpear();
+            if (_aborted) {
+                return bestSoFar;
+            }
+            if (sense == 1 ? score > bestSoFar : score < bestSoFar) {
+                bestSoFar = score;
+                bestMove = mv;
+                if (sense == 1) {
+                    alpha = max(alpha, score);
+                } else {
+                    beta = min(beta, score);
+                }
+                if (beta <= alpha) {
+                    recordCutoff(keys, i, mv, depth, ply, side, SPEAR_HALF);
+                    break;
+                }
+            }
+        }
+        _bestThrow = bestMove;
+        return bestSoFar;
+    }
+
+    /** The move completed by the last call to throwFindMove. */
+    private int _bestThrow;
+
+    /** Return a heuristic value for BOARD. */
+    private int staticScore(Board board) {
+        Piece winner = board.winner();
+        if (winner == BLACK) {
+            return -WINNING_VALUE;
+        } else if (winner == WHITE) {
+            return WINNING_VALUE;
+        }
+        _evaluations += 1;
+        return evaluate(board);
+    }
+
+    /** Return a heuristic value for BOARD, ignoring whether the game is
+     *  over: a weighted sum of the territory each side controls, by queen
+     *  and by king distance, with the difference in the sides' freedom of
+     *  movement (Board.score) to break ties.  Positive values favor
+     *  White. */
+    static int evaluate(Board board) {
+        return QUEEN_TERRITORY_WEIGHT * board.queenTerritory()
+            + KING_TERRITORY_WEIGHT * board.kingTerritory()
+            + board.score();
+    }
+
+    /** Weights of the terms of evaluate. */
+    private static final int
+        QUEEN_TERRITORY_WEIGHT = 4,
+        KING_TERRITORY_WEIGHT = 2;
+
+    /** The transposition table I share with other Searchers. */
+    private final TranspositionTable _table;
+    /** When set, tells me to abandon my search. */
+    private final AtomicBoolean _stop;
+    /** My number within my group of Searchers, and the group's size. */
+    private final int _id, _count;
+    /** True iff I split each move into an amazon move and a throw. */
+    private final boolean _splitPly;
+    /** The search features I use. */
+    private final int _features;
+    /** True iff I time my iterations. */
+    private final boolean _timed;
+    /** The number of plies by which selective features reduce searches,
+     *  and the least depth at which they do so. */
+    private final int _reduction, _selectiveDepth;
+
+    /** My copy of the position being searched. */
+    private final Board _board = new Board();
+    /** 1 if I am searching for a White move, -1 for Black. */
+    private int _sense;
+    /** Move buffers, indexed by remaining search depth. */
+    private int[][] _moveBuffers = new int[0][];
+    /** Sort key buffers, indexed by remaining search depth. */
+    private long[][] _keyBuffers = new long[0][];
+    /** Scratch space for the squares next to the opponent's amazons. */
+    private final long[] _near = new long[2];
+
+    /** The depth of the current iteration. */
+    private int _rootDepth;
+    /** The two most recent killer moves at each ply. */
+    private final int[] _killers = new int[2 * (2 * MAX_DEPTH + 1)];
+    /** History tables, indexed by side and either the origin and
+     *  destination of the amazon (see amazonIndex) or the destination
+     *  and spear (see spearIndex).  _history counts the moves that caused
+     *  cutoffs, weighted by the square of the remaining depth, and
+     *  _butterfly the moves tried before them, weighted by depth. */
+    private final int[]
+        _history = new int[2 * 2 * SQUARES * SQUARES],
+        _butterfly = new int[2 * 2 * SQUARES * SQUARES];
+    /** The numbers of beta cutoffs, and of those caused by the first move
+     *  tried, in the current search. */
+    private long _cutoffs, _firstMoveCutoffs;
+
+    /** The best move found by the last completed iteration. */
+    private int _bestMove;
+    /** The depth of the last completed iteration. */
+    private int _completedDepth;
+    /** The value found by the last completed iteration. */
+    private int _completedValue;
+
+    /** The numbers of nodes, of leaves, and of calls to evaluate in the
+     *  current search. */
+    private long _nodes, _leaves, _evaluations;
+    /** The nodes visited and time taken by each completed iteration of
+     *  the current search, indexed by depth. */
+    private final long[]
+        _iterationNodes = new long[2 * MAX_DEPTH + 1],
+        _iterationNanos = new long[2 * MAX_DEPTH + 1];
+    /** The value found by each completed iteration of the current search,
+     *  indexed by depth. */
+    private final int[] _iterationValues = new int[2 * MAX_DEPTH + 1];
+    /** The current search's node budget (0 for unlimited). */
+    private long _nodeLimit;
+    /** The value of System.nanoTime() at which the current search is to
+     *  stop.  It is compared by subtraction, since nanoTime may wrap. */
+    private long _deadline;
+    /** True iff the current iteration may be abandoned when it runs out of
+     *  budget.  The first iteration of the main search always completes,
+     *  so that there is always a move to make. */
+    private boolean _abortable;
+    /** True iff the current iteration has been abandoned; its results
+     *  are then ignored. */
+    private boolean _aborted;
+}
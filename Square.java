@@ -70,9 +70,11 @@ final class Square {
      *  northwest. If DIR has another value, return null. Thus, unless the
      *  result is null the resulting square is a queen move away from me. */
     Square queenMove(int dir, int steps) {
-        int dcol = DIR[dir][0] * steps;
-        int drow = DIR[dir][1] * steps;
-        return sq(this.col() + dcol, this.row() + drow);
+        Square result = queenMoveBound(dir, steps);
+        if (result == null) {
+            throw error("row or column out of bounds");
+        }
+        return result;
     }
 
     /** Return the Square that is STEPS>0 squares away from me in direction
@@ -81,14 +83,26 @@ final class Square {
      *  northwest. If DIR has another value, return null. Thus, unless the
      *  result is null the resulting square is a queen move away from me. */
     Square queenMoveBound(int dir, int steps) {
-        int dcol = DIR[dir][0] * steps;
-        int drow = DIR[dir][1] * steps;
-        if (!exists(this.col() + dcol, this.row() + drow)) {
+        if (dir < 0 || dir >= DIR.length
+            || steps <= 0 || steps > _rays[dir].length) {
             return null;
         }
-        return sq(this.col() + dcol, this.row() + drow);
+        return _rays[dir][steps - 1];
+    }
+
+    /** Return the Squares from me to the edge of the board in direction
+     *  DIR (numbered as for queenMove), nearest first, not including me.
+     *  The result is shared, and must not be modified. */
+    Square[] ray(int dir) {
+        return _rays[dir];
     }
 
+    /** Return the index of the Square one step in direction DIR (numbered
+     *  as for queenMove) from the Square with index INDEX, or -1 if there
+     *  is none. */
+    static int step(int index, int dir) {
+        return STEPS[index * DIR.length + dir];
+    }
 
     /** Return the direction (an int as defined in the documentation
      *  for queenMove) of the queen move THIS-TO. */
@@ -123,7 +137,7 @@ final class Square {
 
     /** Return the (unique) Square denoting COL ROW. */
     static Square sq(int col, int row) {
-        if (!exists(row, col)) {
+        if (!exists(col, row)) {
             throw error("row or column out of bounds");
         }
         return sq(row * Board.SIZE + col);
@@ -170,10 +184,34 @@ final class Square {
     /** SQUARES viewed as a List. */
     private static final List<Square> SQUARE_LIST = Arrays.asList(SQUARES);
 
+    /** For each Square index I and direction DIR, STEPS[I * 8 + DIR] is
+     *  step(I, DIR). */
+    private static final int[] STEPS =
+        new int[Board.SIZE * Board.SIZE * DIR.length];
+
     static {
         for (int i = Board.SIZE * Board.SIZE - 1; i >= 0; i -= 1) {
             SQUARES[i] = new Square(i);
         }
+        for (Square square : SQUARES) {
+            for (int dir = 0; dir < DIR.length; dir += 1) {
+                int n;
+                n = 0;
+                while (exists(square._col + DIR[dir][0] * (n + 1),
+                              square._row + DIR[dir][1] * (n + 1))) {
+                    n += 1;
+                }
+                Square[] ray = new Square[n];
+                for (int k = 1; k <= n; k += 1) {
+                    ray[k - 1] = SQUARES[(square._row + DIR[dir][1] * k)
+                                         * Board.SIZE
+                                         + square._col + DIR[dir][0] * k];
+                }
+                square._rays[dir] = ray;
+                STEPS[square._index * DIR.length + dir] =
+                    n == 0 ? -1 : ray[0]._index;
+            }
+        }
     }
 
     /** My index position. */
@@ -185,4 +223,7 @@ final class Square {
     /** My String denotation. */
     private final String _str;
 
+    /** The Squares along each ray from me (see ray). */
+    private final Square[][] _rays = new Square[DIR.length][];
+
 }
@@ -29,10 +29,11 @@ class TextPlayer extends Player {
             String line = _controller.readLine();
             if (line == null) {
                 return "quit";
-            } else if (mv(line) != null && !board().isLegal(mv(line))) {
+            }
+            Move move = mv(line);
+            if (move != null && !board().isLegal(move)) {
                 _controller.reportError("Invalid move. "
                                         + "Please try again.");
-                continue;
             } else {
                 return line;
             }
@@ -0,0 +1,445 @@
+package amazons;
+
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static amazons.Piece.*;
+import static amazons.Utils.error;
+
+import ucb.util.CommandArgs;
+
+/** A program that plays a match between two engines, running many games
+ *  at once in this JVM.  Each game has its own Controller, with a
+ *  NullView and a Reporter that discards everything.  Games come in
+ *  pairs: both games of a pair start with the same random opening
+ *  (chosen by Controller.randomOpening after the same setSeed), with
+ *  each engine playing White once.
+ *
+ *  As results arrive, the match reports the first engine's score, an
+ *  estimate of its Elo rating relative to the second (with a 95%
+ *  confidence interval), and the log-likelihood ratio of a sequential
+ *  probability ratio test (SPRT) of the hypothesis that the difference
+ *  is ELO1 against the hypothesis that it is ELO0.  The match stops when
+ *  the test accepts either hypothesis, with error rates of at most
+ *  ALPHA and BETA, or when all games have been played.
+ *
+ *  Usage: java amazons.Tournament [--games=N] [--time=MS] [--nodes=N]
+ *  [--concurrency=N] [--openings=PLIES] [--seed=N] [--elo0=E]
+ *  [--elo1=E] ENGINE1 ENGINE2.  Each ENGINE is ab or mcts, optionally
+ *  followed by a colon and comma-separated parameters: for ab, hash=MB,
+ *  threads=N, split, features=F+... (see Searcher.features), and
+ *  book=FILE; for mcts, threads=N and arena=N.
+ *  @author edwardsun
+ */
+public class Tournament {
+
+    /** Run the match described by ARGS (see the class comment). */
+    public static void main(String... args) {
+        CommandArgs options =
+            new CommandArgs("--games={0,1} --time={0,1} --nodes={0,1} "
+                            + "--concurrency={0,1} --openings={0,1} "
+                            + "--seed={0,1} --elo0={0,1} --elo1={0,1} "
+                            + "--={2}", args);
+        if (!options.ok()) {
+            usage();
+        }
+        Tournament match;
+        try {
+            List<String> engines = options.get("--");
+            match = new Tournament(engine(engines.get(0)),
+                                   engine(engines.get(1)));
+            match.setGames(intOption(options, "--games", DEFAULT_GAMES));
+            match.setMoveTime(intOption(options, "--time", DEFAULT_TIME));
+            match.setNodeLimit(intOption(options, "--nodes", 0));
+            match.setConcurrency(
+                intOption(options, "--concurrency",
+                          Runtime.getRuntime().availableProcessors()));
+            match.setOpeningPlies(intOption(options, "--openings",
+                                            DEFAULT_OPENING_PLIES));
+            match.setSeed(intOption(options, "--seed", 0));
+            match.setHypotheses(doubleOption(options, "--elo0", 0),
+                                doubleOption(options, "--elo1",
+                                             DEFAULT_ELO1));
+        } catch (IllegalArgumentException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+            usage();
+            return;
+        }
+        match.run(System.out);
+        System.exit(0);
+    }
+
+    /** Print a usage message and exit. */
+    private static void usage() {
+        System.err.println("Usage: java amazons.Tournament [--games=N]"
+                           + " [--time=MS] [--nodes=N] [--concurrency=N]"
+                           + " [--openings=PLIES] [--seed=N] [--elo0=E]"
+                           + " [--elo1=E] ENGINE1 ENGINE2");
+        System.exit(1);
+    }
+
+    /** Return the value of the non-negative integer option NAME in
+     *  OPTIONS, or DFLT if it is absent. */
+    private static int intOption(CommandArgs options, String name,
+                                 int dflt) {
+        if (!options.contains(name)) {
+            return dflt;
+        }
+        try {
+            int value = Integer.parseInt(options.getFirst(name));
+            if (value >= 0) {
+                return value;
+            }
+        } catch (NumberFormatException excp) {
+            /* Fall through to error. */
+        }
+        throw error("bad value for %s", name);
+    }
+
+    /** Return the value of the numeric option NAME in OPTIONS, or DFLT if
+     *  it is absent. */
+    private static double doubleOption(CommandArgs options, String name,
+                                       double dflt) {
+        if (!options.contains(name)) {
+            return dflt;
+        }
+        try {
+            return Double.parseDouble(options.getFirst(name));
+        } catch (NumberFormatException excp) {
+            throw error("bad value for %s", name);
+        }
+    }
+
+    /** Return a player template for the engine described by SPEC (see
+     *  the class comment). */
+    static Player engine(String spec) {
+        String[] parts = spec.split(":", 2);
+        String[] params =
+            parts.length > 1 ? parts[1].split(",") : new String[0];
+        if (parts[0].equals("ab")) {
+            AI ai = new AI().setHashSize(AI.DEFAULT_HASH_SIZE);
+            for (String param : params) {
+                String[] nv = param.split("=", 2);
+                switch (nv[0]) {
+                case "hash":
+                    ai.setHashSize(intParam(nv));
+                    break;
+                case "threads":
+                    ai.setThreads(intParam(nv));
+                    break;
+                case "split":
+                    ai.setSplitPly(true);
+                    break;
+                case "features":
+                    if (nv.length < 2) {
+                        throw error("missing search features");
+                    }
+                    ai.setFeatures(Searcher.features(nv[1]));
+                    break;
+                case "book":
+                    if (nv.length < 2) {
+                        throw error("missing book file");
+                    }
+                    try {
+                        ai.setBook(OpeningBook.open(nv[1]));
+                    } catch (java.io.IOException excp) {
+                        throw error("could not open opening book: %s",
+                                    excp.getMessage());
+                    }
+                    break;
+                default:
+                    throw error("unknown ab parameter: %s", param);
+                }
+            }
+            return ai;
+        } else if (parts[0].equals("mcts")) {
+            MCTSPlayer player = new MCTSPlayer();
+            for (String param : params) {
+                String[] nv = param.split("=", 2);
+                switch (nv[0]) {
+                case "threads":
+                    player.setThreads(intParam(nv));
+                    break;
+                case "arena":
+                    player.setArenaSize(intParam(nv));
+                    break;
+                default:
+                    throw error("unknown mcts parameter: %s", param);
+                }
+            }
+            return player;
+        }
+        throw error("unknown engine: %s", spec);
+    }
+
+    /** Return the positive value of the engine parameter NV, a name and
+     *  value. */
+    private static int intParam(String[] nv) {
+        try {
+            int value = Integer.parseInt(nv.length > 1 ? nv[1] : "");
+            if (value > 0) {
+                return value;
+            }
+        } catch (NumberFormatException excp) {
+            /* Fall through to error. */
+        }
+        throw error("bad value for engine parameter %s", nv[0]);
+    }
+
+    /** A match between the engines whose player templates are ENGINE1 and
+     *  ENGINE2, with default settings. */
+    Tournament(Player engine1, Player engine2) {
+        _engines = new Player[] { engine1, engine2 };
+        _games = DEFAULT_GAMES;
+        _moveTime = DEFAULT_TIME;
+        _concurrency = Runtime.getRuntime().availableProcessors();
+        _openingPlies = DEFAULT_OPENING_PLIES;
+        setHypotheses(0, DEFAULT_ELO1);
+    }
+
+    /** Play at most GAMES games (rounded up to a whole number of pairs). */
+    void setGames(int games) {
+        _games = games + games % 2;
+    }
+
+    /** Allow each engine MILLIS milliseconds a move. */
+    void setMoveTime(long millis) {
+        _moveTime = millis;
+    }
+
+    /** Allow each engine NODES nodes a move (no limit if 0). */
+    void setNodeLimit(long nodes) {
+        _nodeLimit = nodes;
+    }
+
+    /** Play up to N games at once. */
+    void setConcurrency(int n) {
+        _concurrency = Math.max(1, n);
+    }
+
+    /** Start each game with PLIES random moves. */
+    void setOpeningPlies(int plies) {
+        _openingPlies = plies;
+    }
+
+    /** Derive the random openings from SEED. */
+    void setSeed(long seed) {
+        _seed = seed;
+    }
+
+    /** Test the hypothesis that the first engine is ELO1 points stronger
+     *  than the second against the hypothesis that it is ELO0 points
+     *  stronger. */
+    void setHypotheses(double elo0, double elo1) {
+        _elo0 = elo0;
+        _elo1 = elo1;
+        double p0 = expectedScore(elo0), p1 = expectedScore(elo1);
+        _winLLR = Math.log(p1 / p0);
+        _lossLLR = Math.log((1 - p1) / (1 - p0));
+    }
+
+    /** Play the match, reporting progress and the result on OUT, and
+     *  return the SPRT's verdict: 1 if it accepts the hypothesis ELO1, -1
+     *  if it accepts ELO0, and 0 if the games ran out first. */
+    int run(java.io.PrintStream out) {
+        ExecutorService pool = Executors.newFixedThreadPool(_concurrency);
+        CompletionService<Integer> games =
+            new ExecutorCompletionService<>(pool);
+        for (int g = 0; g < _games; g += 1) {
+            int game = g;
+            games.submit(() -> play(game));
+        }
+
+        int verdict = 0;
+        try {
+            for (int played = 0; played < _games && verdict == 0;
+                 played += 1) {
+                int result = games.take().get();
+                if (result > 0) {
+                    _wins += 1;
+                } else if (result < 0) {
+                    _losses += 1;
+                } else {
+                    continue;
+                }
+                verdict = verdict();
+                if (verdict != 0 || (_wins + _losses) % REPORT_INTERVAL == 0) {
+                    out.println(status());
+                }
+            }
+        } catch (InterruptedException | ExecutionException excp) {
+            throw new IllegalStateException("match failed: "
+                                            + excp.getMessage());
+        } finally {
+            pool.shutdownNow();
+            try {
+                pool.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException excp) {
+                /* Give up waiting. */
+            }
+        }
+        if (verdict == 0 && (_wins + _losses) % REPORT_INTERVAL != 0) {
+            out.println(status());
+        }
+        out.println(verdict > 0 ? String.format("H1 (elo %+.1f) accepted",
+                                                _elo1)
+                    : verdict < 0 ? String.format("H0 (elo %+.1f) accepted",
+                                                  _elo0)
+                    : "Inconclusive");
+        return verdict;
+    }
+
+    /** Play game number GAME and return 1 if the first engine won it, -1
+     *  if it lost, and 0 if the game was abandoned.  Even-numbered games
+     *  have the first engine as White; games 2K and 2K + 1 start from the
+     *  same opening. */
+    private int play(int game) {
+        boolean firstIsWhite = game % 2 == 0;
+        Controller control =
+            new Controller(new NullView(), null, SILENT,
+                           _engines[firstIsWhite ? 0 : 1],
+                           _engines[firstIsWhite ? 1 : 0]);
+        control.setMoveTime(_moveTime);
+        control.setNodeLimit(_nodeLimit);
+        control.setSeed(_seed * OPENING_SEED_STRIDE + game / 2);
+        Piece winner = control.playGame(_openingPlies);
+        if (winner == null) {
+            return 0;
+        }
+        return (winner == WHITE) == firstIsWhite ? 1 : -1;
+    }
+
+    /** Return the number of games the first engine has won. */
+    int wins() {
+        return _wins;
+    }
+
+    /** Return the number of games the first engine has lost. */
+    int losses() {
+        return _losses;
+    }
+
+    /** Return the estimated Elo difference between the first engine and
+     *  the second from the games so far. */
+    double elo() {
+        return elo(score(_wins, _losses));
+    }
+
+    /** Return half the width of the 95% confidence interval for elo(). */
+    double eloMargin() {
+        int n = _wins + _losses;
+        if (n == 0) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double s = score(_wins, _losses);
+        double deviation = Math.sqrt(s * (1 - s) / n);
+        return (elo(s + Z95 * deviation) - elo(s - Z95 * deviation)) / 2;
+    }
+
+    /** Return the log-likelihood ratio of the hypotheses ELO1 and ELO0
+     *  given the games so far. */
+    double llr() {
+        return _wins * _winLLR + _losses * _lossLLR;
+    }
+
+    /** Return 1 if the SPRT accepts ELO1, -1 if it accepts ELO0, and
+     *  otherwise 0. */
+    int verdict() {
+        double llr = llr();
+        if (llr >= Math.log((1 - BETA) / ALPHA)) {
+            return 1;
+        } else if (llr <= Math.log(BETA / (1 - ALPHA))) {
+            return -1;
+        }
+        return 0;
+    }
+
+    /** Return a one-line summary of the match so far. */
+    String status() {
+        return String.format("games %d: +%d -%d  elo %+.1f +- %.1f"
+                             + "  LLR %.2f [%.2f, %.2f]",
+                             _wins + _losses, _wins, _losses,
+                             elo(), eloMargin(), llr(),
+                             Math.log(BETA / (1 - ALPHA)),
+                             Math.log((1 - BETA) / ALPHA));
+    }
+
+    /** Return the first engine's score (fraction of games won) after WINS
+     *  wins and LOSSES losses, kept away from 0 and 1 so that its Elo
+     *  equivalent is finite. */
+    private static double score(int wins, int losses) {
+        return (wins + 0.5) / (wins + losses + 1);
+    }
+
+    /** Return the Elo difference at which the stronger side's expected
+     *  score is S. */
+    static double elo(double s) {
+        s = Math.min(Math.max(s, 1e-6), 1 - 1e-6);
+        return -400 * Math.log10(1 / s - 1);
+    }
+
+    /** Return the expected score of a side ELO points stronger than its
+     *  opponent. */
+    static double expectedScore(double elo) {
+        return 1 / (1 + Math.pow(10, -elo / 400));
+    }
+
+    /** A Reporter that discards everything. */
+    private static final Reporter SILENT = new Reporter() {
+        @Override
+        public void reportError(String format, Object... args) {
+        }
+
+        @Override
+        public void reportNote(String format, Object... args) {
+        }
+
+        @Override
+        public void reportMove(Move move) {
+        }
+    };
+
+    /** Default number of games. */
+    static final int DEFAULT_GAMES = 1000;
+    /** Default time per move, in milliseconds. */
+    static final int DEFAULT_TIME = 100;
+    /** Default number of random opening moves. */
+    static final int DEFAULT_OPENING_PLIES = 2;
+    /** Default Elo difference of the alternative hypothesis. */
+    static final double DEFAULT_ELO1 = 10;
+    /** The SPRT's bounds on its probabilities of accepting ELO1 when
+     *  ELO0 holds (ALPHA) and the reverse (BETA). */
+    static final double ALPHA = 0.05, BETA = 0.05;
+    /** The normal deviate for a two-sided 95% interval. */
+    private static final double Z95 = 1.96;
+    /** The number of games between progress reports. */
+    private static final int REPORT_INTERVAL = 20;
+    /** Separates the opening seeds of matches with different seeds. */
+    private static final long OPENING_SEED_STRIDE = 1_000_003;
+
+    /** The player templates of the two engines. */
+    private final Player[] _engines;
+    /** The maximum number of games. */
+    private int _games;
+    /** Time per move, in milliseconds. */
+    private long _moveTime;
+    /** Nodes per move, or 0 for no limit. */
+    private long _nodeLimit;
+    /** The number of games played at once. */
+    private int _concurrency;
+    /** The number of random opening moves. */
+    private int _openingPlies;
+    /** The seed from which openings are derived. */
+    private long _seed;
+    /** The Elo differences of the two hypotheses. */
+    private double _elo0, _elo1;
+    /** The contributions of each win and each loss to the LLR. */
+    private double _winLLR, _lossLLR;
+    /** The first engine's wins and losses so far. */
+    private int _wins, _losses;
+}
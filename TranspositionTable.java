@@ -0,0 +1,163 @@
+package amazons;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/** A fixed-size table of search results, indexed by the Zobrist hash of
+ *  the position searched (see Board.hash).  Each entry records the
+ *  depth of the search, its score, the kind of bound that score is, and
+ *  the best move found.  When two positions map to the same slot, the
+ *  result of the deeper search is kept, except that results from earlier
+ *  searches (see newSearch) are always replaced.
+ *
+ *  Several threads may use one table at once without locking.  Each
+ *  entry's key is stored exclusive-or'ed with its data, so that an entry
+ *  torn by simultaneous stores fails to match its key and reads as
+ *  missing rather than as wrong.
+ *  @author edwardsun
+ */
+final class TranspositionTable {
+
+    /** Bound types: the score is exact, a lower bound on the true value
+     *  (the search failed high), or an upper bound (it failed low). */
+    static final int EXACT = 1, LOWER = 2, UPPER = 3;
+
+    /** The number of bytes taken by each entry. */
+    static final int ENTRY_SIZE = 16;
+
+    /** A table with room for the largest power of two entries that
+     *  fits in MEGABYTES megabytes (and at least one entry). */
+    TranspositionTable(int megabytes) {
+        long entries = Math.max(1, ((long) megabytes << 20) / ENTRY_SIZE);
+        int size = Integer.highestOneBit((int) Math.min(entries, 1 << 30));
+        _keys = new long[size];
+        _data = new long[size];
+        _mask = size - 1;
+    }
+
+    /** Return the number of entries in the table. */
+    int size() {
+        return _keys.length;
+    }
+
+    /** Remove all entries and reset all counters. */
+    void clear() {
+        Arrays.fill(_keys, 0);
+        Arrays.fill(_data, 0);
+        _hits.reset();
+        _misses.reset();
+        _collisions.reset();
+    }
+
+    /** Mark the start of a new search, so that entries stored by previous
+     *  searches are replaced in preference to new ones. */
+    void newSearch() {
+        _generation = (_generation + 1) & GENERATION_MASK;
+    }
+
+    /** Return the entry stored for the position whose hash is KEY, or 0
+     *  if there is none.  The components of a non-zero result may be
+     *  extracted with depth, bound, score, and move. */
+    long probe(long key) {
+        int i = (int) key & _mask;
+        long data = _data[i];
+        if (data != 0 && (_keys[i] ^ data) == key) {
+            _hits.increment();
+            return data;
+        }
+        if (data != 0) {
+            _collisions.increment();
+        }
+        _misses.increment();
+        return 0;
+    }
+
+    /** Record that a search to depth DEPTH of the position whose hash is
+     *  KEY produced SCORE, a bound of type BOUND, with best move MOVE (a
+     *  packed move, or 0 if none). */
+    void store(long key, int depth, int bound, int score, int move) {
+        int i = (int) key & _mask;
+        long old = _data[i];
+        if (old != 0 && (_keys[i] ^ old) != key
+            && generation(old) == _generation && depth(old) > depth) {
+            return;
+        }
+        long data = (score & 0xffffffffL)
+            | ((long) move << MOVE_SHIFT)
+            | ((long) Math.min(depth, DEPTH_MASK) << DEPTH_SHIFT)
+            | ((long) bound << BOUND_SHIFT)
+            | ((long) _generation << GENERATION_SHIFT);
+        _keys[i] = key ^ data;
+        _data[i] = data;
+    }
+
+    /** Return the search depth recorded in non-zero entry DATA. */
+    static int depth(long data) {
+        return (int) (data >>> DEPTH_SHIFT) & DEPTH_MASK;
+    }
+
+    /** Return the bound type (EXACT, LOWER, or UPPER) of entry DATA. */
+    static int bound(long data) {
+        return (int) (data >>> BOUND_SHIFT) & BOUND_MASK;
+    }
+
+    /** Return the score recorded in entry DATA. */
+    static int score(long data) {
+        return (int) data;
+    }
+
+    /** Return the packed best move recorded in entry DATA (0 if none). */
+    static int move(long data) {
+        return (int) (data >>> MOVE_SHIFT) & MOVE_MASK;
+    }
+
+    /** Return the number of probes that found an entry. */
+    long hits() {
+        return _hits.sum();
+    }
+
+    /** Return the number of probes that found no entry. */
+    long misses() {
+        return _misses.sum();
+    }
+
+    /** Return the number of probes that found their slot occupied by
+     *  another position (these are also counted as misses). */
+    long collisions() {
+        return _collisions.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d entries, %d hits, %d misses, %d collisions",
+                             size(), hits(), misses(), collisions());
+    }
+
+    /** Return the search generation recorded in entry DATA. */
+    private static int generation(long data) {
+        return (int) (data >>> GENERATION_SHIFT) & GENERATION_MASK;
+    }
+
+    /** Layout of an entry's data word: the score in bits 0-31, the packed
+     *  move in bits 32-52, the depth in bits 53-58, the bound type in
+     *  bits 59-60, and the search generation in bits 61-63.  Since bound
+     *  types are non-zero, so are all stored entries. */
+    private static final int
+        MOVE_SHIFT = 32, MOVE_MASK = (1 << 21) - 1,
+        DEPTH_SHIFT = 53, DEPTH_MASK = (1 << 6) - 1,
+        BOUND_SHIFT = 59, BOUND_MASK = 3,
+        GENERATION_SHIFT = 61, GENERATION_MASK = 7;
+
+    /** The data words of the entries, and their hash keys, each
+     *  exclusive-or'ed with the corresponding data word. */
+    private final long[] _keys, _data;
+    /** Mask selecting the slot for a key. */
+    private final int _mask;
+    /** The current search generation. */
+    private volatile int _generation;
+    /** Probe statistics. */
+    private final LongAdder
+        _hits = new LongAdder(),
+        _misses = new LongAdder(),
+        _collisions = new LongAdder();
+}
@@ -20,6 +20,7 @@ public class UnitTest {
     public static void main(String[] ignored) {
         textui.runClasses(UnitTest.class);
         textui.runClasses(IteratorTests.class);
+        textui.runClasses(SearchTests.class);
     }
 
     /** Tests basic correctness of put and get on the initialized board. */
@@ -93,6 +94,66 @@ public class UnitTest {
         assertEquals(Square.sq(3, 5).direction(Square.sq(0, 2)), 5);
     }
 
+    /** Tests conversion of positions to and from compact notation and
+     *  binary form. */
+    @Test
+    public void testNotation() {
+        Board b = new Board();
+        assertEquals("3B2B3/10/10/B8B/10/10/W8W/10/10/3W2W3 w",
+                     b.toNotation());
+        byte[] buffer = new byte[1 + 2 * Board.POSITION_BYTES];
+        assertEquals(26, Board.POSITION_BYTES);
+        for (String position : new String[] { SP3, WHITELOSS, SMILE }) {
+            readBoard(b, position);
+            b.swap();
+            Board copy = new Board();
+            copy.setNotation(b.toNotation());
+            assertEquals(position, copy.toString());
+            assertEquals(BLACK, copy.turn());
+            assertEquals(b.hash(), copy.hash());
+            assertEquals(0, copy.numMoves());
+
+            b.writePosition(buffer, 1 + Board.POSITION_BYTES);
+            copy = new Board();
+            copy.readPosition(buffer, 1 + Board.POSITION_BYTES);
+            assertEquals(position, copy.toString());
+            assertEquals(b.hash(), copy.hash());
+            b.swap();
+        }
+        for (String bad : new String[] {
+                "3B2B3/10/10/B8B/10/10/W8W/10/10/3W2W3",
+                "3B2B3/10/10/B8B/10/10/W8W/10/10/3W2W4 w",
+                "3B2B3/10/10/B8B/10/10/W8W/10/10/3W2X3 w",
+                "3B2B3/10/10/B8B/10/10/W8W/10/3W2W3 w" }) {
+            Board copy = new Board();
+            try {
+                copy.setNotation(bad);
+                fail("accepted " + bad);
+            } catch (IllegalArgumentException excp) {
+                assertEquals(INIT_BOARD_STATE, copy.toString());
+            }
+        }
+    }
+
+    /** Tests the precomputed rays and steps of Squares. */
+    @Test
+    public void testRays() {
+        Square c2 = Square.sq(2, 1);
+        assertEquals(1, c2.ray(5).length);
+        assertSame(Square.sq(1, 0), c2.ray(5)[0]);
+        assertEquals(7, c2.ray(2).length);
+        assertSame(Square.sq(9, 1), c2.ray(2)[6]);
+        assertSame(Square.sq(4, 3), c2.queenMoveBound(1, 2));
+        assertNull(c2.queenMoveBound(4, 2));
+        assertEquals(-1, Square.step(0, 4));
+        assertEquals(11, Square.step(0, 1));
+        for (int dir = 0; dir < 8; dir += 1) {
+            for (Square s : c2.ray(dir)) {
+                assertEquals(dir, c2.direction(s));
+            }
+        }
+    }
+
     /** Tests toString for initial board state and a smiling board state. :) */
     @Test
     public void testToString() {
@@ -385,6 +446,213 @@ public class UnitTest {
         assertEquals(4633196, numLegals);
     }
 
+    /** Tests that generateMoves produces the same moves, in the same
+     *  order, as legalMoves, and that limiting it to a set of squares
+     *  keeps just the moves of the amazons there. */
+    @Test
+    public void testGenerateMoves() {
+        int[] buffer = new int[Board.MAX_MOVES];
+        for (String position : new String[] { INIT_BOARD_STATE, SP3, SMILE }) {
+            Board b = new Board();
+            readBoard(b, position);
+            for (Piece side : new Piece[] { WHITE, BLACK }) {
+                int n = b.generateMoves(side, buffer);
+                Iterator<Move> it = b.legalMoves(side);
+                for (int i = 0; i < n; i += 1) {
+                    assertSame(it.next(), Move.mv(buffer[i]));
+                    assertEquals(buffer[i], Move.mv(buffer[i]).packed());
+                }
+                assertFalse(it.hasNext());
+                long lo = 0x5555555555555555L, hi = 0x0f0f0f0fL;
+                int[] region = new int[Board.MAX_MOVES];
+                int m = b.generateMoves(side, lo, hi, region), k;
+                k = 0;
+                for (int i = 0; i < n; i += 1) {
+                    int from = Move.fromIndex(buffer[i]);
+                    if (((Bits.word(from) == 0 ? lo : hi)
+                         & Bits.bit(from)) != 0) {
+                        assertEquals(buffer[i], region[k]);
+                        k += 1;
+                    }
+                }
+                assertEquals(k, m);
+            }
+        }
+        assertEquals(2176, new Board().generateMoves(WHITE, buffer));
+    }
+
+    /** Tests the hand-written move parser against the move syntax. */
+    @Test
+    public void testMoveParsing() {
+        assertEquals(Move.mv(Square.sq(0), Square.sq(90), Square.sq(99))
+                     .packed(), Move.parse("a1-a10(j10)", 0, 11));
+        assertEquals(Move.parse("a1-a10(j10)", 0, 11),
+                     Move.parse("x A1  a10\tJ10 y", 2, 13));
+        assertSame(Move.mv("d1-d7(g7)"), Move.mv("d1 d7 g7"));
+        assertEquals(Move.pack(0, 1, 22), Move.parse("a1-b1(c3)", 0, 9));
+        assertNull(Move.mv("a1-b1(c3)"));
+        assertTrue(Move.isGrammaticalMove("a1-b1(c3)"));
+        for (String bad : new String[] { "", "a1-b1", "a1-b1(c3", "a1b1c3",
+                                         "a1-b1(c3))", "k1-b1(c3)",
+                                         "a0-b1(c3)", "a11-b1(c3)",
+                                         "a1 b1(c3)", "a1-b1 c3" }) {
+            assertEquals(bad, -1, Move.parse(bad, 0, bad.length()));
+            assertFalse(bad, Move.isGrammaticalMove(bad));
+        }
+    }
+
+    /** Tests that Moves are unique, including those that are not queen
+     *  moves and those created by several threads at once. */
+    @Test
+    public void testMoveInterning() throws InterruptedException {
+        Square a1 = Square.sq(0), b3 = Square.sq(21), c3 = Square.sq(22);
+        assertSame(Move.mv(a1, b3, c3), Move.mv(a1, b3, c3));
+        assertEquals("a1-b3(c3)", Move.mv(a1, b3, c3).toString());
+        assertSame(Move.mv("d1-d7(g7)"), Move.mv("d1 d7 g7"));
+
+        Move[][] found = new Move[4][Board.SIZE * Board.SIZE];
+        Thread[] threads = new Thread[found.length];
+        for (int t = 0; t < threads.length; t += 1) {
+            Move[] mine = found[t];
+            threads[t] = new Thread(() -> {
+                for (int k = 0; k < mine.length; k += 1) {
+                    mine[k] = Move.mv(Square.sq(k), Square.sq(99 - k),
+                                      Square.sq(k));
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (int k = 0; k < found[0].length; k += 1) {
+            for (Move[] other : found) {
+                assertSame(found[0][k], other[k]);
+            }
+        }
+    }
+
+    /** Tests that undo exactly reverses makeMove, including the turn and
+     *  the cached winner. */
+    @Test
+    public void testMakeUndo() {
+        Board b = new Board();
+        int[] buffer = new int[Board.MAX_MOVES];
+        int n = b.generateMoves(WHITE, buffer);
+        assertNull(b.winner());
+        for (int i = 0; i < n; i += 97) {
+            b.makeMove(buffer[i]);
+            b.swap();
+            assertEquals(BLACK, b.turn());
+            assertEquals(1, b.numMoves());
+            b.undo();
+            assertEquals(WHITE, b.turn());
+            assertEquals(0, b.numMoves());
+            assertEquals(INIT_BOARD_STATE, b.toString());
+        }
+
+        readBoard(b, BLACK_LOSE);
+        assertEquals(WHITE, b.winner());
+        n = b.generateMoves(WHITE, buffer);
+        b.makeMove(buffer[0]);
+        b.undo();
+        assertEquals(WHITE, b.winner());
+        assertEquals(BLACK_LOSE, b.toString());
+    }
+
+    /** Tests that the hash is maintained incrementally and depends only on
+     *  the position and side to move, not on how it was reached. */
+    @Test
+    public void testHash() {
+        Board b1 = new Board(), b2 = new Board();
+        long initial = b1.hash();
+        b1.makeMove(Move.mv("d1-d8(e9)"));
+        b1.makeMove(Move.mv("g10-h9(h8)"));
+        b2.makeMove(Move.mv("d1-d8(h8)"));
+        b2.makeMove(Move.mv("g10-h9(e9)"));
+        assertEquals(2, b1.numMoves());
+        assertEquals(b1.toString(), b2.toString());
+        assertEquals(b1.hash(), b2.hash());
+        b1.swap();
+        assertNotEquals(b1.hash(), b2.hash());
+        b1.undo();
+        b1.undo();
+        assertEquals(initial, b1.hash());
+
+        Board b3 = new Board();
+        readBoard(b3, b2.toString());
+        assertEquals(b2.hash(), b3.hash());
+    }
+
+    /** Tests that a move made in two halves has the same effect as one
+     *  made all at once, and is undone exactly. */
+    @Test
+    public void testHalfMoves() {
+        Board b1 = new Board(), b2 = new Board();
+        String initial = b1.toString();
+        long hash = b1.hash();
+        int mv = Move.mv("d1-d7(g7)").packed();
+        int half = Move.amazonMove(mv);
+        int[] buffer = new int[Board.MAX_MOVES];
+        b1.makeMove(mv);
+        b2.makeAmazonMove(half);
+        assertEquals(EMPTY, b2.get(Square.sq("d1")));
+        assertEquals(WHITE, b2.get(Square.sq("d7")));
+        int n = b2.generateThrows(half, buffer);
+        assertTrue(n > 0);
+        assertTrue(java.util.Arrays.stream(buffer, 0, n)
+                   .anyMatch(m -> m == mv));
+        b2.throwSpear(Move.spearIndex(mv));
+        assertEquals(b1.toString(), b2.toString());
+        assertEquals(b1.hash(), b2.hash());
+        b2.retractSpear();
+        b2.undo();
+        assertEquals(initial, b2.toString());
+        assertEquals(hash, b2.hash());
+        assertEquals(0, b2.numMoves());
+    }
+
+    /** Tests that the cached mobility test follows changes to the board,
+     *  including moves and their undoing. */
+    @Test
+    public void testHasMove() {
+        Board b = new Board();
+        readBoard(b, BLACK_LOSE);
+        assertFalse(b.hasMove(BLACK));
+        assertTrue(b.hasMove(WHITE));
+        assertEquals(WHITE, b.winner());
+        b.put(EMPTY, Square.sq("c9"));
+        b.put(WHITE, Square.sq("e10"));
+        assertTrue(b.hasMove(BLACK));
+        assertNull(b.winner());
+        b.makeMove(Move.mv("e10-d10(c9)"));
+        assertFalse(b.hasMove(BLACK));
+        assertEquals(WHITE, b.winner());
+        b.undo();
+        assertTrue(b.hasMove(BLACK));
+        assertNull(b.winner());
+    }
+
+    /** Tests territory counts by queen and king distance. */
+    @Test
+    public void testTerritory() {
+        Board b = new Board();
+        assertEquals(0, b.queenTerritory());
+        assertEquals(0, b.kingTerritory());
+        readBoard(b, SMILE);
+        assertEquals(76, b.queenTerritory());
+        assertEquals(76, b.kingTerritory());
+        readBoard(b, BLACK_LOSE);
+        assertEquals(76, b.queenTerritory());
+        assertEquals(76, b.kingTerritory());
+        b = new Board();
+        b.makeMove(Move.mv("d1-d7(g7)"));
+        b.swap();
+        assertTrue(b.queenTerritory() > 0);
+        b.undo();
+        assertEquals(0, b.queenTerritory());
+    }
+
     static void readBoard(Board b, String pattern) {
         int index = 0;
         for (String i : pattern.split("[ \n]")) {
@@ -420,6 +688,27 @@ public class UnitTest {
         assertEquals(20, b.freedom(BLACK));
     }
 
+    /** Tests that the bitboard layers agree with square-by-square
+     *  contents. */
+    @Test
+    public void testPieceLayers() {
+        Board b = new Board();
+        readBoard(b, SP3);
+        int amazons = 0;
+        for (Piece p : new Piece[] { WHITE, BLACK, SPEAR }) {
+            Iterator<Square> it = b.pieces(p);
+            while (it.hasNext()) {
+                Square s = it.next();
+                assertEquals(p, b.get(s));
+                assertFalse(b.isEmpty(s.index()));
+                amazons += p == SPEAR ? 0 : 1;
+            }
+        }
+        assertEquals(8, amazons);
+        assertTrue(b.isEmpty(Square.sq("a1").index()));
+        assertEquals(SPEAR, b.get(Square.sq("g9").index()));
+    }
+
     @Test
     public void testIfWhiteLoss() {
         Board b = new Board();